@@ -0,0 +1,402 @@
+package template;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+import logist.agent.Agent;
+import logist.agent.AgentStatistics;
+import logist.config.Parsers;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Headless scaling benchmark of the deliberative agent. Every DeliberativeAgent
+ * configuration of agents.xml plans seeded task sets of increasing size on
+ * every topology, without the platform and its GUI, and one CSV row is written
+ * per run with the planning time, the expanded nodes, the peak heap usage and
+ * the cost of the plan.
+ *
+ * Each run is executed in its own JVM, so that the peak heap of a run is not
+ * polluted by the previous ones and a run that times out or runs out of memory
+ * does not stop the benchmark. Once a configuration fails on a topology, the
+ * larger task sets are skipped.
+ *
+ * Usage, from the deliberative directory:
+ *
+ * <pre>
+ * javac -sourcepath src -cp ../logist/logist.jar -d bin src/*.java bench/*.java
+ * java -cp bin:../logist/logist.jar:../logist/lib/* template.DeliberativeBenchmark \
+ *     [-agents config/agents.xml] [-topologies config/topology] [-tasks 4:20:1] \
+ *     [-seeds 3] [-timeout 90] [-xmx 4g] [-out benchmark.csv]
+ * </pre>
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class DeliberativeBenchmark {
+
+	static final int CAPACITY = 30; // Weight capacity of the benchmark vehicle
+	static final int COST_PER_KM = 5; // Cost per km of the benchmark vehicle
+	static final int TASK_WEIGHT = 3; // Weight of each task
+
+	private static final String HEADER = "topology,agent,algorithm,heuristic,tasks,seed,status,time_ms,expanded,"
+			+ "generated,peak_heap_bytes,cost";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("run")) {
+			run(args[1], args[2], args[3], args[4], Integer.parseInt(args[5]), Long.parseLong(args[6]));
+			return;
+		}
+
+		Map<String, String> options = parseOptions(args);
+		String agentsFile = options.getOrDefault("agents", "config/agents.xml");
+		File topologyDir = new File(options.getOrDefault("topologies", "config/topology"));
+		int[] taskRange = Arrays.stream(options.getOrDefault("tasks", "4:20:1").split(":"))
+				.mapToInt(Integer::parseInt).toArray();
+		int numSeeds = Integer.parseInt(options.getOrDefault("seeds", "3"));
+		long timeout = Long.parseLong(options.getOrDefault("timeout", "90"));
+		String xmx = options.getOrDefault("xmx", "4g");
+		String out = options.getOrDefault("out", "benchmark.csv");
+
+		File[] topologies = topologyDir.listFiles((dir, name) -> name.endsWith(".xml"));
+		Arrays.sort(topologies);
+		Map<String, Map<String, String>> agents = readAgents(agentsFile);
+
+		try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+			writer.println(HEADER);
+		}
+
+		for (File topology : topologies) {
+			for (Map.Entry<String, Map<String, String>> agent : agents.entrySet()) {
+				boolean failed = false;
+				for (int numTasks = taskRange[0]; numTasks <= taskRange[1]; numTasks += taskRange[2]) {
+					for (int seed = 1; seed <= numSeeds; seed++) {
+						if (failed) {
+							appendRow(out, topology, agent, numTasks, seed, "skipped");
+							continue;
+						}
+						String status = spawn(out, xmx, timeout, agentsFile, topology, agent.getKey(), numTasks,
+								seed);
+						System.out.printf("%s %s tasks=%d seed=%d %s%n", topology.getName(), agent.getKey(), numTasks,
+								seed, status);
+						if (!status.equals("ok")) {
+							appendRow(out, topology, agent, numTasks, seed, status);
+							failed = true;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper function running a single benchmark in a new JVM.
+	 *
+	 * @return "ok", or "timeout" or "failed" if the JVM did not complete the run
+	 */
+	private static String spawn(String out, String xmx, long timeout, String agentsFile, File topology,
+			String agentName, int numTasks, int seed) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+		command.add("-Xmx" + xmx);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DeliberativeBenchmark.class.getName());
+		Collections.addAll(command, "run", out, agentsFile, topology.getPath(), agentName,
+				Integer.toString(numTasks), Integer.toString(seed));
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+		if (!process.waitFor(timeout, TimeUnit.SECONDS)) {
+			process.destroyForcibly().waitFor();
+			return "timeout";
+		}
+		return process.exitValue() == 0 ? "ok" : "failed";
+	}
+
+	/**
+	 * Method planning a single task set with a single agent configuration, and
+	 * appending the result to the CSV file. Called in the JVM spawned for the run.
+	 */
+	private static void run(String out, String agentsFile, String topologyFile, String agentName, int numTasks,
+			long seed) throws Exception {
+		Topology topology = Parsers.parseTopology(topologyFile);
+		Map<String, String> properties = readAgents(agentsFile).get(agentName);
+		Random random = new Random(seed);
+		City home = topology.randomCity(random);
+		TaskSet tasks = createTasks(topology, numTasks, random);
+
+		BenchmarkVehicle vehicle = new BenchmarkVehicle(home, TaskSet.noneOf(tasks));
+		DeliberativeAgent agent = new DeliberativeAgent();
+		agent.setup(topology, null, new BenchmarkAgent(agentName, properties, vehicle, tasks));
+
+		System.gc();
+		DeliberativeAgent.resetPeakHeapUsage();
+		long start = System.nanoTime();
+		Plan plan = agent.plan(vehicle, tasks);
+		long time = System.nanoTime() - start;
+		long peakHeap = DeliberativeAgent.peakHeapUsage();
+
+		SearchStatistics statistics = agent.getStatistics();
+		try (PrintWriter writer = new PrintWriter(new FileWriter(out, true))) {
+			writer.println(String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,ok,%.3f,%d,%d,%d,%.0f",
+					new File(topologyFile).getName().replace(".xml", ""), agentName, properties.get("algorithm"),
+					properties.getOrDefault("heuristic-id", ""), numTasks, seed, time / 1e6,
+					statistics.getNumExpanded(), statistics.getNumGenerated(), peakHeap,
+					plan.totalDistance() * COST_PER_KM));
+		}
+	}
+
+	/**
+	 * Method creating a seeded set of tasks between distinct random cities, with
+	 * a constant weight and a reward proportional to the length of the task.
+	 */
+	static TaskSet createTasks(Topology topology, int numTasks, Random random) {
+		Task[] tasks = new Task[numTasks];
+		for (int i = 0; i < numTasks; i++) {
+			City pickupCity = topology.randomCity(random);
+			City deliveryCity;
+			do
+				deliveryCity = topology.randomCity(random);
+			while (deliveryCity == pickupCity);
+			long reward = (long) (pickupCity.distanceTo(deliveryCity) * COST_PER_KM * 2);
+			tasks[i] = new Task(i, pickupCity, deliveryCity, reward, TASK_WEIGHT);
+		}
+		return TaskSet.create(tasks);
+	}
+
+	/**
+	 * Method reading the properties of the DeliberativeAgent configurations of an
+	 * agents.xml file, by agent name.
+	 */
+	static Map<String, Map<String, String>> readAgents(String agentsFile) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(agentsFile));
+		Map<String, Map<String, String>> agents = new LinkedHashMap<>();
+		NodeList agentTags = document.getElementsByTagName("agent");
+		for (int i = 0; i < agentTags.getLength(); i++) {
+			Element agentTag = (Element) agentTags.item(i);
+			Map<String, String> properties = new HashMap<>();
+			NodeList setTags = agentTag.getElementsByTagName("set");
+			for (int j = 0; j < setTags.getLength(); j++) {
+				NamedNodeMap attributes = setTags.item(j).getAttributes();
+				for (int k = 0; k < attributes.getLength(); k++)
+					properties.put(attributes.item(k).getNodeName(), attributes.item(k).getNodeValue());
+			}
+			if (DeliberativeAgent.class.getName().equals(properties.get("class-name")))
+				agents.put(agentTag.getAttribute("name"), properties);
+		}
+		return agents;
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("-"))
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			options.put(args[i].substring(1), args[i + 1]);
+		}
+		return options;
+	}
+
+	private static void appendRow(String out, File topology, Map.Entry<String, Map<String, String>> agent,
+			int numTasks, int seed, String status) throws IOException {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(out, true))) {
+			writer.println(String.format(Locale.ROOT, "%s,%s,%s,%s,%d,%d,%s,,,,,",
+					topology.getName().replace(".xml", ""), agent.getKey(), agent.getValue().get("algorithm"),
+					agent.getValue().getOrDefault("heuristic-id", ""), numTasks, seed, status));
+		}
+	}
+
+	/**
+	 * Vehicle standing still in its home city, as seen by the agent when planning.
+	 */
+	static class BenchmarkVehicle implements Vehicle {
+
+		private City home; // Home city of the vehicle
+		private TaskSet currentTasks; // Tasks carried by the vehicle
+
+		BenchmarkVehicle(City home, TaskSet currentTasks) {
+			this.home = home;
+			this.currentTasks = currentTasks;
+		}
+
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public String name() {
+			return "benchmark";
+		}
+
+		@Override
+		public int capacity() {
+			return CAPACITY;
+		}
+
+		@Override
+		public City homeCity() {
+			return home;
+		}
+
+		@Override
+		public double speed() {
+			return 220;
+		}
+
+		@Override
+		public int costPerKm() {
+			return COST_PER_KM;
+		}
+
+		@Override
+		public City getCurrentCity() {
+			return home;
+		}
+
+		@Override
+		public TaskSet getCurrentTasks() {
+			return currentTasks;
+		}
+
+		@Override
+		public long getReward() {
+			return 0;
+		}
+
+		@Override
+		public long getDistanceUnits() {
+			return 0;
+		}
+
+		@Override
+		public double getDistance() {
+			return 0;
+		}
+
+		@Override
+		public Color color() {
+			return Color.BLUE;
+		}
+
+	}
+
+	/**
+	 * Agent owning the benchmark vehicle, whose properties are read from its tag
+	 * in agents.xml.
+	 */
+	static class BenchmarkAgent implements Agent {
+
+		private String name; // Name of the agent in agents.xml
+		private Map<String, String> properties; // Properties set in the agent's tag
+		private Vehicle vehicle; // Only vehicle of the agent
+		private TaskSet tasks; // Tasks of the agent
+
+		BenchmarkAgent(String name, Map<String, String> properties, Vehicle vehicle, TaskSet tasks) {
+			this.name = name;
+			this.properties = properties;
+			this.vehicle = vehicle;
+			this.tasks = tasks;
+		}
+
+		@Override
+		public int id() {
+			return 0;
+		}
+
+		@Override
+		public List<Vehicle> vehicles() {
+			return Collections.singletonList(vehicle);
+		}
+
+		@Override
+		public TaskSet getTasks() {
+			return tasks;
+		}
+
+		@Override
+		public <T> T readProperty(String key, Class<T> type, T defaultValue) {
+			String value = properties.get(key);
+			if (value == null)
+				return defaultValue;
+			if (type == Integer.class)
+				return type.cast(Integer.valueOf(value));
+			if (type == Long.class)
+				return type.cast(Long.valueOf(value));
+			if (type == Double.class)
+				return type.cast(Double.valueOf(value));
+			if (type == Boolean.class)
+				return type.cast(Boolean.valueOf(value));
+			if (type == String.class)
+				return type.cast(value);
+			throw new IllegalArgumentException("Unsupported type of property " + key + " of agent " + name);
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public long getTotalDistanceUnits() {
+			return 0;
+		}
+
+		@Override
+		public double getTotalDistance() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalCost() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalReward() {
+			return 0;
+		}
+
+		@Override
+		public long getTotalProfit() {
+			return 0;
+		}
+
+		@Override
+		public int getTotalTasks() {
+			return 0;
+		}
+
+		@Override
+		public int compareTo(AgentStatistics other) {
+			return name.compareTo(other.name());
+		}
+
+	}
+
+}
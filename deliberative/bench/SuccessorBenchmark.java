@@ -0,0 +1,129 @@
+package template;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import logist.config.Parsers;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Microbenchmark of the successor generation and of the heuristic functions.
+ * A sample of states is collected by random walks from the initial state of a
+ * seeded task set, then each operation is run over the whole sample for a
+ * number of warmup iterations, so that the JIT compiles it, and of measured
+ * iterations, reported as mean and standard deviation of the time per call,
+ * along with the number of bytes allocated per call.
+ *
+ * Usage, from the deliberative directory:
+ *
+ * <pre>
+ * javac -sourcepath src -cp ../logist/logist.jar -d bin src/*.java bench/*.java
+ * java -cp bin:../logist/logist.jar:../logist/lib/* template.SuccessorBenchmark \
+ *     [topology file] [number of tasks] [seed]
+ * </pre>
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class SuccessorBenchmark {
+
+	private static final int NUM_SAMPLES = 4096; // Number of sampled states
+	private static final int WARMUP_ITERATIONS = 50; // Iterations run before measuring
+	private static final int MEASURED_ITERATIONS = 30; // Iterations measured
+
+	private static double sink; // Consumes the results, so that the calls are not optimized away
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean(); // Counts the bytes allocated by the benchmark thread
+
+	interface Operation {
+		double apply(State state);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String topologyFile = args.length > 0 ? args[0] : "config/topology/switzerland.xml";
+		int numTasks = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+		Topology topology = Parsers.parseTopology(topologyFile);
+		Random random = new Random(seed);
+		City home = topology.randomCity(random);
+		TaskSet tasks = DeliberativeBenchmark.createTasks(topology, numTasks, random);
+		TaskIndex taskIndex = new TaskIndex(topology, tasks, TaskSet.noneOf(tasks),
+				new SpanningTreeCache(topology, 1 << 16), PatternDatabase.load(topology, "pdb", 12));
+		taskIndex.groupInterchangeableTasks();
+		SuccessorGenerator successors = new SuccessorGenerator(topology, taskIndex, DeliberativeBenchmark.CAPACITY,
+				DeliberativeBenchmark.COST_PER_KM, true, 3);
+		SearchStatistics statistics = new SearchStatistics("benchmark", numTasks);
+		State[] states = sampleStates(successors, taskIndex.initialState(home), random);
+
+		measure("expand (no heuristic)", states, state -> {
+			double[] sum = new double[1];
+			successors.expand(state, 0, false, statistics, (child, gCost, hCost, opcode, argument) -> sum[0] += gCost);
+			return sum[0];
+		});
+		measure("expand (heuristic 3)", states, state -> {
+			double[] sum = new double[1];
+			successors.expand(state, 0, true, statistics, (child, gCost, hCost, opcode, argument) -> sum[0] += hCost);
+			return sum[0];
+		});
+		for (int heuristicId = 0; heuristicId <= 4; heuristicId++) {
+			int id = heuristicId;
+			measure("getHCost (heuristic " + heuristicId + ")", states,
+					state -> state.getHCost(taskIndex, DeliberativeBenchmark.COST_PER_KM, id));
+		}
+		System.out.println("sink: " + sink);
+	}
+
+	/**
+	 * Helper function collecting states by random walks from the initial state,
+	 * restarting from it whenever a goal state is reached.
+	 */
+	private static State[] sampleStates(SuccessorGenerator successors, State initialState, Random random) {
+		State[] states = new State[NUM_SAMPLES];
+		SearchStatistics statistics = new SearchStatistics("sampling", 0);
+		State state = initialState;
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			states[i] = state;
+			List<State> children = new ArrayList<>();
+			successors.expand(state, 0, false, statistics,
+					(child, gCost, hCost, opcode, argument) -> children.add(child));
+			state = children.isEmpty() ? initialState : children.get(random.nextInt(children.size()));
+		}
+		return states;
+	}
+
+	private static void measure(String name, State[] states, Operation operation) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			run(states, operation);
+
+		double[] times = new double[MEASURED_ITERATIONS];
+		double mean = 0;
+		long allocatedBytes = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			times[i] = (double) run(states, operation) / states.length;
+			mean += times[i] / MEASURED_ITERATIONS;
+		}
+		allocatedBytes = threads.getCurrentThreadAllocatedBytes() - allocatedBytes;
+		double variance = 0;
+		for (double time : times)
+			variance += (time - mean) * (time - mean) / (MEASURED_ITERATIONS - 1);
+		System.out.println(String.format(Locale.ROOT, "%-24s %10.1f ns/op +- %-8.1f %8.1f B/op", name, mean,
+				Math.sqrt(variance), (double) allocatedBytes / MEASURED_ITERATIONS / states.length));
+	}
+
+	private static long run(State[] states, Operation operation) {
+		long start = System.nanoTime();
+		double result = 0;
+		for (State state : states)
+			result += operation.apply(state);
+		long time = System.nanoTime() - start;
+		sink += result;
+		return time;
+	}
+
+}
@@ -1,9 +1,12 @@
 package template;
 
+import java.util.List;
 import java.util.Stack;
 
 import logist.plan.Action;
+import logist.plan.Action.Move;
 import logist.plan.Plan;
+import logist.topology.Topology.City;
 
 /**
  * Class used as a node representation for the A* algorithm.
@@ -126,18 +129,29 @@ public class AStarNode implements Comparable<AStarNode> {
 
 	/**
 	 * Helper function to build the plan using the reversed sequence of Action
-	 * objects inferred by traversing the node's ancestors up until the root.
+	 * objects inferred by traversing the node's ancestors up until the root. A MOVE
+	 * action is expanded into the chain of moves along the shortest path between
+	 * the cities of the parent and of the node, so that moves to non-neighbor
+	 * cities (macro actions) become legal actions.
 	 * 
-	 * @param plan plan to which action have to be added
+	 * @param plan      plan to which action have to be added
+	 * @param taskIndex index of the tasks of the search
 	 */
-	public void inferPlan(Plan plan) {
+	public void inferPlan(Plan plan, TaskIndex taskIndex) {
 		Stack<Action> reversedPlan = new Stack<>();
 		AStarNode tmp = this;
 
 		while (tmp != null) {
 			AStarNode tmpParent = tmp.getParent();
-			if (tmpParent != null)
-				reversedPlan.push(tmp.getActionPerformed());
+			if (tmpParent != null) {
+				if (tmp.getActionPerformed() instanceof Move) {
+					City from = taskIndex.getCity(tmpParent.getState().getLocation());
+					List<City> path = from.pathTo(taskIndex.getCity(tmp.getState().getLocation()));
+					for (int i = path.size() - 1; i >= 0; i--)
+						reversedPlan.push(new Move(path.get(i)));
+				} else
+					reversedPlan.push(tmp.getActionPerformed());
+			}
 			tmp = tmpParent;
 		}
 
@@ -0,0 +1,230 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Anytime Repairing A* (ARA*). A first plan is found quickly by a weighted A*
+ * search with an inflation factor epsilon, which is then decreased towards 1.
+ * Each search reuses the nodes, costs and open list of the previous one: the
+ * nodes whose cost improved after they were expanded are kept aside as
+ * inconsistent instead of being reopened, and are put back in the open list
+ * when epsilon decreases.
+ *
+ * The rewards of the tasks are part of g(n) and h(n), but their total is the
+ * same for every plan, so only the travel part of the heuristic is inflated:
+ * f(n) = g(n) + h(n) + (epsilon - 1) * (h(n) + rewards of the remaining tasks).
+ * The suboptimality bound therefore holds on the travel cost of the plan.
+ *
+ * The search stops at a deadline, returning the best goal found so far and the
+ * bound of the last completed search.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class AnytimeRepairingAStar {
+
+	private SuccessorGenerator successors; // Generator of the child nodes
+	private double initialEpsilon; // Inflation factor of the first search
+	private double epsilonStep; // Decrease of the inflation factor after each search
+
+	private ArrayList<AStarNode> nodes; // All the nodes of the search, by index
+	private StateTable visitedStates; // Visited states and the index of their node
+	private IndexedMinHeap queue; // Indices of the nodes to be expanded, ordered by the inflated f(n)
+	private double[] travelEstimates; // h(n) + rewards of the remaining tasks of each node
+	private int[] closedIn; // Number of the search in which each node was last expanded, 0 if never
+	private BitSet inconsistent; // Nodes improved after being expanded in the current search
+
+	private int iteration; // Number of the current search
+	private double epsilon; // Inflation factor of the current search
+	private double totalReward; // Reward of all the tasks, the same for every plan
+	private AStarNode bestGoalNode; // Cheapest goal node found so far
+	private double bestGoalCost; // Cost of the cheapest goal node found so far
+	private double bound; // Suboptimality bound of the best goal node on the travel cost
+	private SearchStatistics statistics; // Metrics of the search
+
+	public AnytimeRepairingAStar(SuccessorGenerator successors, double initialEpsilon, double epsilonStep) {
+		super();
+		this.successors = successors;
+		this.initialEpsilon = Math.max(1, initialEpsilon);
+		this.epsilonStep = epsilonStep;
+	}
+
+	/**
+	 * Method running the searches from the given root node until the plan is
+	 * optimal or the deadline is reached.
+	 *
+	 * @param root       node of the initial state
+	 * @param deadline   value of System.nanoTime() at which the search stops
+	 * @param statistics metrics of the search, updated while it runs
+	 * @return the best goal node found, or null if none was found in time
+	 */
+	public AStarNode search(AStarNode root, long deadline, SearchStatistics statistics) {
+		this.statistics = statistics;
+		AStarNode goalNode = runSearches(root, deadline);
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		statistics.setBytesPerNode(SearchStatistics.estimateNodeBytes(taskIndex.getNumWords())
+				+ StateTable.bytesPerEntry(taskIndex.getNumWords()) + IndexedMinHeap.BYTES_PER_ITEM + 12);
+		return goalNode;
+	}
+
+	/**
+	 * Method running the searches with decreasing epsilon.
+	 */
+	private AStarNode runSearches(AStarNode root, long deadline) {
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		this.nodes = new ArrayList<>();
+		this.visitedStates = new StateTable(taskIndex.getNumWords(),
+				StateTable.estimateNumStates(this.successors.getTopology().size(), taskIndex.getNumTasks()));
+		this.queue = new IndexedMinHeap(1024);
+		this.travelEstimates = new double[1024];
+		this.closedIn = new int[1024];
+		this.inconsistent = new BitSet();
+		this.totalReward = 0;
+		for (int t = 0; t < taskIndex.getNumTasks(); t++)
+			this.totalReward += taskIndex.getReward(t);
+		this.bestGoalNode = null;
+		this.bestGoalCost = Double.POSITIVE_INFINITY;
+		this.bound = Double.POSITIVE_INFINITY;
+
+		this.iteration = 1;
+		this.epsilon = this.initialEpsilon;
+		add(root);
+
+		while (improvePath(deadline)) {
+			if (this.bestGoalNode == null)
+				return null;
+			this.bound = Math.min(this.epsilon, lowerBoundRatio());
+			System.out.println("ARA* plan found with epsilon = " + this.epsilon + ", cost = " + this.bestGoalCost
+					+ ", suboptimality bound = " + this.bound);
+			if (this.bound <= 1 || this.epsilon <= 1)
+				return this.bestGoalNode;
+
+			// Decrease epsilon, and move the inconsistent nodes back to the open list
+			// which is reordered with the new f(n)
+			this.epsilon = Math.max(1, this.epsilon - this.epsilonStep);
+			this.iteration++;
+			int[] items = this.queue.items();
+			this.queue.clear();
+			for (int index : items)
+				this.queue.push(index, key(index));
+			for (int index = this.inconsistent.nextSetBit(0); index >= 0; index = this.inconsistent
+					.nextSetBit(index + 1))
+				this.queue.push(index, key(index));
+			this.inconsistent.clear();
+		}
+
+		System.out.println("ARA* deadline reached with epsilon = " + this.epsilon + ", cost = " + this.bestGoalCost
+				+ ", suboptimality bound = " + this.bound);
+		return this.bestGoalNode;
+	}
+
+	/**
+	 * Method expanding the nodes in order of inflated f(n) until none of them can
+	 * lead to a goal cheaper than the best one.
+	 *
+	 * @return false if the deadline was reached first
+	 */
+	private boolean improvePath(long deadline) {
+		while (!this.queue.isEmpty() && this.queue.peekKey() < this.bestGoalCost) {
+			if (System.nanoTime() - deadline >= 0)
+				return false;
+
+			this.statistics.sizes(this.queue.size(), this.visitedStates.size());
+			int index = this.queue.poll();
+			this.closedIn[index] = this.iteration;
+			for (AStarNode childNode : this.successors.expand(this.nodes.get(index), this.statistics))
+				add(childNode);
+		}
+		return true;
+	}
+
+	/**
+	 * Method adding a newly generated node to the search. If its state was already
+	 * visited only the cheaper path is kept, and the improved node goes back to
+	 * the open list unless it was already expanded in the current search.
+	 */
+	private void add(AStarNode childNode) {
+		State state = childNode.getState();
+		int index = this.visitedStates.putIfAbsent(state, this.nodes.size());
+		if (index < 0) {
+			index = this.nodes.size();
+			this.nodes.add(childNode);
+			ensureNodeCapacity(index);
+			TaskIndex taskIndex = this.successors.getTaskIndex();
+			this.travelEstimates[index] = childNode.gethCost() + taskIndex.rewardSum(state.getTasksToPickup())
+					+ taskIndex.rewardSum(state.getTasksToDeliver());
+		} else {
+			AStarNode n = this.nodes.get(index);
+			if (childNode.getgCost() >= n.getgCost())
+				return;
+			if (this.closedIn[index] > 0)
+				this.statistics.nodeReopened();
+			n.setParent(childNode.getParent());
+			n.setgCost(childNode.getgCost());
+			n.setActionPerformed(childNode.getActionPerformed());
+		}
+
+		// Goal nodes are never expanded, they only bound the search
+		AStarNode n = this.nodes.get(index);
+		if (state.isGoalState()) {
+			if (n.getgCost() < this.bestGoalCost) {
+				this.statistics.goalFound();
+				this.bestGoalNode = n;
+				this.bestGoalCost = n.getgCost();
+			}
+		} else if (this.closedIn[index] == this.iteration)
+			this.inconsistent.set(index);
+		else
+			this.queue.push(index, key(index));
+	}
+
+	/**
+	 * Method computing the inflated f(n) of a node.
+	 */
+	private double key(int index) {
+		AStarNode n = this.nodes.get(index);
+		return n.getfCost() + (this.epsilon - 1) * this.travelEstimates[index];
+	}
+
+	/**
+	 * Method computing the ratio between the travel cost of the best goal and a
+	 * lower bound of the optimal travel cost, the smallest f(n) among the nodes
+	 * still open or inconsistent.
+	 */
+	private double lowerBoundRatio() {
+		double lowerBound = this.bestGoalCost;
+		for (int index : this.queue.items())
+			lowerBound = Math.min(lowerBound, this.nodes.get(index).getfCost());
+		for (int index = this.inconsistent.nextSetBit(0); index >= 0; index = this.inconsistent.nextSetBit(index + 1))
+			lowerBound = Math.min(lowerBound, this.nodes.get(index).getfCost());
+
+		double travelCost = this.bestGoalCost + this.totalReward;
+		double travelLowerBound = lowerBound + this.totalReward;
+		if (travelCost <= travelLowerBound)
+			return 1;
+		return travelLowerBound > 0 ? travelCost / travelLowerBound : Double.POSITIVE_INFINITY;
+	}
+
+	private void ensureNodeCapacity(int index) {
+		if (index < this.closedIn.length)
+			return;
+		int capacity = Math.max(index + 1, this.closedIn.length << 1);
+		this.travelEstimates = Arrays.copyOf(this.travelEstimates, capacity);
+		this.closedIn = Arrays.copyOf(this.closedIn, capacity);
+	}
+
+	public int getNumStatesConsidered() {
+		return visitedStates.size();
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public double getBound() {
+		return bound;
+	}
+
+}
@@ -0,0 +1,159 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import logist.plan.Plan;
+
+/**
+ * Beam search. The search proceeds by depth layers, and only the best nodes of
+ * each layer by f(n) = g(n) + h(n), up to the width of the beam, are kept and
+ * expanded into the next layer. The children are deduplicated by packed state,
+ * within the layer and against the states kept in the previous layers, and a
+ * state is only kept again if it is reached with a lower g(n). The children
+ * whose f(n) is not below the cheapest goal found so far are pruned.
+ *
+ * With macro actions the depth of a plan grows linearly with the number of
+ * tasks, so the time and the memory of the search are bounded by the width
+ * times the number of tasks. The plan is not optimal in general, the wider
+ * the beam the cheaper it usually is.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class BeamSearch {
+
+	/**
+	 * Child generated in a layer, before the best ones are selected.
+	 */
+	private static final class Candidate {
+		final State state;
+		final double gCost;
+		final double fCost;
+		final int parent;
+		final byte opcode;
+		final int argument;
+
+		Candidate(State state, double gCost, double hCost, int parent, byte opcode, int argument) {
+			this.state = state;
+			this.gCost = gCost;
+			this.fCost = gCost + hCost;
+			this.parent = parent;
+			this.opcode = opcode;
+			this.argument = argument;
+		}
+	}
+
+	private SuccessorGenerator successors; // Shared generator of the child nodes
+	private int width; // Maximum number of nodes kept per layer
+
+	private StateTable states; // States kept in the beam and the index of their node
+	private NodeArena nodes; // Nodes kept in the beam, indexed like the table
+	private int bestGoalNode; // Cheapest goal node found so far, -1 if none
+	private int depth; // Number of layers expanded
+
+	public BeamSearch(SuccessorGenerator successors, int width) {
+		super();
+		this.successors = successors;
+		this.width = Math.max(1, width);
+	}
+
+	/**
+	 * Method running the search from the given initial state.
+	 *
+	 * @param initialState state of the root of the search
+	 * @param statistics   metrics of the search, updated while it runs
+	 * @return the index of the cheapest goal node found, or -1 if none
+	 */
+	public int search(State initialState, SearchStatistics statistics) {
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		int expectedSize = this.width * Math.max(1, 3 * taskIndex.getNumTasks());
+		this.states = new StateTable(taskIndex.getNumWords(), expectedSize);
+		this.nodes = new NodeArena(expectedSize);
+		this.bestGoalNode = -1;
+		this.depth = 0;
+
+		int root = this.nodes.add(-1, 0, this.successors.hCost(initialState, statistics), NodeArena.ROOT, 0);
+		this.states.putIfAbsent(initialState, root);
+		if (initialState.isGoalState()) {
+			statistics.goalFound();
+			return this.bestGoalNode = root;
+		}
+
+		List<Integer> layer = new ArrayList<>();
+		layer.add(root);
+		while (!layer.isEmpty()) {
+			statistics.sizes(layer.size(), this.states.size());
+
+			// Children of the layer, deduplicated by state keeping the lowest g(n)
+			HashMap<State, Candidate> candidates = new HashMap<>();
+			for (int node : layer) {
+				State state = this.states.getState(node, taskIndex);
+				this.successors.expand(state, this.nodes.getgCost(node), true, statistics,
+						(child, gCost, hCost, opcode, argument) -> {
+							if (this.bestGoalNode >= 0 && gCost + hCost >= this.nodes.getgCost(this.bestGoalNode))
+								return;
+							int kept = this.states.get(child);
+							if (kept >= 0 && this.nodes.getgCost(kept) <= gCost)
+								return;
+							Candidate candidate = candidates.get(child);
+							if (candidate == null || gCost < candidate.gCost)
+								candidates.put(child, new Candidate(child, gCost, hCost, node, opcode, argument));
+						});
+			}
+
+			// Only the best children by f(n) are kept, the goals end their path
+			List<Candidate> sorted = new ArrayList<>(candidates.values());
+			sorted.sort(Comparator.comparingDouble(candidate -> candidate.fCost));
+			List<Integer> nextLayer = new ArrayList<>(Math.min(this.width, sorted.size()));
+			for (Candidate candidate : sorted.subList(0, Math.min(this.width, sorted.size()))) {
+				int node = this.states.get(candidate.state);
+				if (node >= 0)
+					this.nodes.update(node, candidate.parent, candidate.gCost, candidate.opcode, candidate.argument);
+				else {
+					node = this.nodes.add(candidate.parent, candidate.gCost, candidate.fCost - candidate.gCost,
+							candidate.opcode, candidate.argument);
+					this.states.putIfAbsent(candidate.state, node);
+				}
+
+				if (!candidate.state.isGoalState())
+					nextLayer.add(node);
+				else if (this.bestGoalNode < 0 || candidate.gCost < this.nodes.getgCost(this.bestGoalNode)) {
+					statistics.goalFound();
+					this.bestGoalNode = node;
+				}
+			}
+			layer = nextLayer;
+			this.depth++;
+		}
+
+		statistics.setBytesPerNode(NodeArena.BYTES_PER_NODE + StateTable.bytesPerEntry(taskIndex.getNumWords()));
+		return this.bestGoalNode;
+	}
+
+	/**
+	 * Method building the plan from the root to a node found by the last search.
+	 */
+	public void inferPlan(int node, Plan plan) {
+		this.nodes.inferPlan(node, plan, this.states, this.successors.getTaskIndex());
+	}
+
+	public double getgCost(int node) {
+		return nodes.getgCost(node);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getNumNodes() {
+		return nodes.size();
+	}
+
+}
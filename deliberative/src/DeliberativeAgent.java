@@ -4,11 +4,25 @@ package template;
 import logist.simulation.Vehicle;
 
 import java.awt.Desktop.Action;
-import java.time.Duration;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.PriorityQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import logist.agent.Agent;
 import logist.behavior.DeliberativeBehavior;
@@ -29,10 +43,10 @@ import logist.topology.Topology.City;
  * @author Orazio Rillo
  */
 @SuppressWarnings("unused")
-public class DeliberativeAgent implements DeliberativeBehavior {
+public class DeliberativeAgent implements DeliberativeBehavior, Cloneable {
 
 	enum Algorithm {
-		BFS, ASTAR
+		BFS, ASTAR, HDASTAR, IDASTAR, ARASTAR, DP, DFBNB, BEAM, PORTFOLIO
 	}
 
 	/* Environment */
@@ -44,11 +58,54 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 	int capacity; /* Total weight capacity of the vehicle */
 	int costPerKm; /* Cost per km when moving the vehicle */
 	int heuristicId; /* Id number of the chosen heuristic function for the A* algorithm */
+	SpanningTreeCache spanningTrees; /* Memoized spanning tree weights for the heuristic with id 3 */
+	PatternDatabase patternDatabase; /* Route lengths over subsets of cities for the heuristic with id 4 */
+	boolean macroActions; /*
+							 * Whether MOVE actions jump along shortest paths to the cities where a task can
+							 * be picked up or delivered, instead of to a neighbor city
+							 */
+	int numThreads; /* Number of worker threads of the parallel A* algorithm */
+	int maxTableSize; /* Maximum number of states in the transposition table of the IDA* algorithm */
+	double initialEpsilon; /* Initial inflation factor of the heuristic in the ARA* algorithm */
+	double epsilonStep; /* Decrease of the inflation factor after each search of the ARA* algorithm */
+	int deadline; /* Time (in ms) after which the ARA* algorithm returns its best plan */
+	int maxDPTableSize; /* Maximum number of entries in the table of the dynamic programming solver */
+	boolean incrementalReplanning; /*
+									 * Whether the A* and dynamic programming algorithms reuse the previous search
+									 * when replanning after a plan is cancelled
+									 */
+	SearchMemory searchMemory; /* Bounds learned by the last A* search with an admissible heuristic, null if none */
+	PlanCache planCache; /* States of the optimal plans found by the A* algorithm, null if disabled */
+	boolean symmetryReduction; /* Whether interchangeable tasks are only picked up in a fixed order */
+	DynamicProgrammingSolver lastSolver; /* Solver of the last dynamic programming plan, null if none */
+	int frontierMemory; /*
+						 * Maximum number of frontier nodes the A* algorithm keeps in memory before
+						 * spilling to disk, 0 to keep the whole open list in memory
+						 */
+	double frontierBucketWidth; /* Range of the f(n) values of each bucket of the A* frontier on disk */
+	int[] beamWidths; /* Widths of the beam searches run in parallel, the cheapest plan being kept */
+	boolean fleetMode; /* Whether the tasks are shared among all the vehicles of the agent */
+	int fleetTimeBudget; /* Time (in ms) of the local search exchanging tasks between the vehicles */
+	int fleetPartitionSlack; /* Number of tasks a vehicle may get beyond its even share in fleet mode */
+	TaskSet[] fleetPartition; /* Tasks assigned to each vehicle in fleet mode, null before the first plan */
+	Plan[] fleetPlans; /*
+						 * Plan of each vehicle in fleet mode, null once it has been returned, the array
+						 * being null once all of them have been
+						 */
+	boolean fleetReplanning; /* Whether a plan was cancelled, so that the next fleet plan is a replan */
+	PortfolioSolver portfolio; /* Configurations raced by the portfolio algorithm, null for the other ones */
+	AtomicBoolean cancelled; /*
+							 * Set when a search raced by a portfolio, or run for a fleet, has to stop, null
+							 * if the search cannot be cancelled
+							 */
 	TaskSet initCarriedTasks; /*
 								 * Helper variable for storing the carried tasks of the vehicle after a plan is
 								 * cancelled
 								 */
 
+	String statisticsFile; /* File to which the metrics of each search are appended, empty for none */
+	SearchStatistics statistics; /* Metrics of the current or last search */
+
 	/* the planning class */
 	Algorithm algorithm;
 
@@ -70,26 +127,309 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		// agents.xml
 		this.heuristicId = agent.readProperty("heuristic-id", Integer.class, 1);
 
+		// The portfolio algorithm races the configurations set in the agent's tag in
+		// agents.xml, as a comma-separated list of ALGORITHM:heuristic-id
+		List<PortfolioSolver.Configuration> portfolioConfigurations = new ArrayList<>();
+		if (this.algorithm == Algorithm.PORTFOLIO)
+			portfolioConfigurations = PortfolioSolver.parseConfigurations(
+					agent.readProperty("portfolio", String.class, "ASTAR:4,ASTAR:3,IDASTAR:3,DP:3,BFS:0"));
+		List<Integer> heuristicIds = new ArrayList<>();
+		heuristicIds.add(this.heuristicId);
+		for (PortfolioSolver.Configuration configuration : portfolioConfigurations)
+			heuristicIds.add(configuration.getHeuristicId());
+
+		// The spanning tree and pattern database heuristics need the cities to fit in a
+		// 64-bit mask
+		if (topology.size() > 64 && (heuristicIds.contains(3) || heuristicIds.contains(4)))
+			throw new IllegalArgumentException(
+					"Heuristics 3 and 4 only support topologies of at most 64 cities, not " + topology.size() + ".");
+
+		// The spanning tree heuristic memoizes its values in a cache of bounded size,
+		// shared by all the plans of the agent
+		if (heuristicIds.contains(3)) {
+			int cacheSize = agent.readProperty("mst-cache-size", Integer.class, 1 << 16);
+			this.spanningTrees = new SpanningTreeCache(topology, cacheSize);
+		}
+
+		// The pattern database heuristic reads the route lengths from a file of the
+		// directory set in the agent's tag in agents.xml, computed offline or else
+		// here, the first time the topology is used
+		if (heuristicIds.contains(4)) {
+			String directory = agent.readProperty("pdb-directory", String.class, "pdb");
+			int patternSize = agent.readProperty("pdb-pattern-size", Integer.class, 12);
+			this.patternDatabase = PatternDatabase.load(topology, directory, patternSize);
+		}
+
+		// Macro actions are used unless disabled in the agent's tag in agents.xml
+		this.macroActions = agent.readProperty("macro-actions", Boolean.class, true);
+
+		// The parallel A* algorithm uses one worker per available processor unless
+		// fewer are set in the agent's tag in agents.xml
+		this.numThreads = agent.readProperty("num-threads", Integer.class,
+				Runtime.getRuntime().availableProcessors());
+
+		// The memory used by the IDA* algorithm is bounded by the size of its
+		// transposition table, set in the agent's tag in agents.xml
+		this.maxTableSize = agent.readProperty("max-table-size", Integer.class, 1 << 20);
+
+		// The ARA* algorithm starts from an inflated heuristic that is decreased until
+		// the plan is optimal or the deadline is reached, by default well within the 1
+		// minute available for execution
+		this.initialEpsilon = agent.readProperty("epsilon", Double.class, 3.0);
+		this.epsilonStep = agent.readProperty("epsilon-step", Double.class, 0.5);
+		this.deadline = agent.readProperty("deadline", Integer.class, 50000);
+
+		// The table of the dynamic programming solver grows as 3^(number of tasks), so
+		// larger instances fall back to A*
+		this.maxDPTableSize = agent.readProperty("dp-max-table-size", Integer.class, 1 << 25);
+
+		// The A* and dynamic programming algorithms replan incrementally unless
+		// disabled in the agent's tag in agents.xml
+		this.incrementalReplanning = agent.readProperty("incremental-replanning", Boolean.class, true);
+
+		// The A* algorithm caches the states of its optimal plans, up to the number set
+		// in the agent's tag in agents.xml, the cache being disabled by default
+		int planCacheSize = agent.readProperty("plan-cache-size", Integer.class, 0);
+		this.planCache = planCacheSize > 0 ? new PlanCache(planCacheSize) : null;
+
+		// The A* algorithm keeps its whole open list in memory unless a budget of
+		// frontier nodes is set in the agent's tag in agents.xml, in which case the
+		// nodes beyond it are spilled to disk in buckets of f(n)
+		this.frontierMemory = agent.readProperty("frontier-memory", Integer.class, 0);
+		this.frontierBucketWidth = agent.readProperty("frontier-bucket-width", Double.class, 100.0);
+
+		// The beam search runs one search per width, as a comma-separated list set in
+		// the agent's tag in agents.xml
+		String beamWidths = agent.readProperty("beam-widths", String.class, "100,1000,10000");
+		this.beamWidths = Arrays.stream(beamWidths.split(",")).map(String::trim).mapToInt(Integer::parseInt)
+				.toArray();
+
+		// Interchangeable tasks are picked up in a fixed order unless disabled in the
+		// agent's tag in agents.xml
+		this.symmetryReduction = agent.readProperty("symmetry-reduction", Boolean.class, true);
+
+		// The metrics of each search are emitted as a JFR event, and also dumped as
+		// JSON to the file set in the agent's tag in agents.xml, if any
+		this.statisticsFile = agent.readProperty("statistics-file", String.class, "");
+
+		// In fleet mode, set in the agent's tag in agents.xml, the tasks are
+		// partitioned among the vehicles, which are planned concurrently, and the
+		// partition is improved by exchanging tasks within the time budget
+		this.fleetMode = agent.readProperty("fleet-mode", Boolean.class, false);
+		this.fleetTimeBudget = agent.readProperty("fleet-time-budget", Integer.class, 10000);
+		this.fleetPartitionSlack = agent.readProperty("fleet-partition-slack", Integer.class, 1);
+
+		// The portfolio races the configurations that won the most on the topology
+		// first, as many as there are threads but no more than the number set in the
+		// agent's tag in agents.xml, and counts the wins in a file of the directory set
+		// there too
+		if (this.algorithm == Algorithm.PORTFOLIO) {
+			int raceSize = agent.readProperty("portfolio-race-size", Integer.class, 3);
+			String directory = agent.readProperty("portfolio-directory", String.class, "portfolio");
+			this.portfolio = new PortfolioSolver(topology, portfolioConfigurations,
+					Math.min(this.numThreads, raceSize), directory);
+		}
+
 	}
 
 	@Override
 	public Plan plan(Vehicle vehicle, TaskSet tasks) {
 		Plan plan;
+		this.statistics = new SearchStatistics(algorithm.name(), tasks.size());
 
-		// Compute the plan with the selected algorithm.
-		switch (algorithm) {
-		case ASTAR:
-			plan = aStarPlan(vehicle, tasks);
-			break;
-		case BFS:
-			plan = bfsPlan(vehicle, tasks);
-			break;
-		default:
-			throw new AssertionError("Should not happen.");
+		// Compute the plan of the fleet in fleet mode, or else the plan with the
+		// selected algorithm.
+		if (this.fleetMode && this.agent.vehicles().size() > 1)
+			plan = fleetPlan(vehicle, tasks);
+		else {
+			switch (algorithm) {
+			case ASTAR:
+				if (this.frontierMemory > 0)
+					plan = externalAStarPlan(vehicle, tasks);
+				else
+					plan = aStarPlan(vehicle, tasks);
+				break;
+			case BFS:
+				plan = bfsPlan(vehicle, tasks);
+				break;
+			case HDASTAR:
+				plan = parallelAStarPlan(vehicle, tasks);
+				break;
+			case IDASTAR:
+				plan = iterativeDeepeningAStarPlan(vehicle, tasks);
+				break;
+			case ARASTAR:
+				plan = anytimeAStarPlan(vehicle, tasks);
+				break;
+			case DP:
+				plan = dynamicProgrammingPlan(vehicle, tasks);
+				break;
+			case DFBNB:
+				plan = branchAndBoundPlan(vehicle, tasks);
+				break;
+			case BEAM:
+				plan = beamPlan(vehicle, tasks);
+				break;
+			case PORTFOLIO:
+				plan = portfolioPlan(vehicle, tasks);
+				break;
+			default:
+				throw new AssertionError("Should not happen.");
+			}
 		}
+
+		this.statistics.finish();
+		dumpStatistics();
 		return plan;
 	}
 
+	/**
+	 * Method that computes the plan of a vehicle in fleet mode. The first call
+	 * plans the whole fleet and the other vehicles get the plans computed for them
+	 * then. A vehicle planning again, after its plan was cancelled, only plans
+	 * for the tasks of its partition that are still available, since the other
+	 * vehicles keep executing their plans. A vehicle planning again otherwise
+	 * starts a new round, for which the whole fleet is planned again. The metrics
+	 * of all the searches run for the call are added to the metrics of the agent.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan fleetPlan(Vehicle vehicle, TaskSet tasks) {
+		List<Vehicle> vehicles = this.agent.vehicles();
+		int v = 0;
+		while (vehicles.get(v).id() != vehicle.id())
+			v++;
+
+		// A vehicle whose plan was already returned plans again either after its plan
+		// was cancelled, for its partition, or at the start of a new round, for which
+		// the whole fleet is planned again
+		boolean replanning = this.fleetReplanning;
+		this.fleetReplanning = false;
+		if (!replanning && (this.fleetPlans == null || this.fleetPlans[v] == null)) {
+			this.fleetPlans = null;
+			this.fleetPartition = null;
+		}
+
+		SearchStatistics statistics = this.statistics;
+		if (this.fleetPartition == null) {
+			FleetPlanner planner = new FleetPlanner(vehicles,
+					(fleetVehicle, fleetTasks, cancelled) -> vehiclePlan(fleetVehicle, fleetTasks, cancelled,
+							statistics),
+					this.numThreads, this.fleetPartitionSlack);
+			this.fleetPlans = planner.plan(tasks, this.fleetTimeBudget);
+			this.fleetPartition = planner.getPartition();
+			System.out.println("Fleet plan cost: " + planner.getTotalCost() + " after "
+					+ planner.getNumRelocations() + " task relocations");
+		}
+
+		Plan plan = this.fleetPlans == null ? null : this.fleetPlans[v];
+		if (plan != null) {
+			this.fleetPlans[v] = null;
+			if (Arrays.stream(this.fleetPlans).allMatch(other -> other == null))
+				this.fleetPlans = null;
+			return plan;
+		}
+		return vehiclePlan(vehicle, TaskSet.intersect(this.fleetPartition[v], tasks), this.cancelled, statistics);
+	}
+
+	/**
+	 * Method computing the optimal plan of one vehicle for the given tasks with the
+	 * selected algorithm, on a copy of the agent configured for the vehicle, so
+	 * that the searches of several vehicles can run concurrently. Each search
+	 * dumps its own metrics, which are also added to the given ones.
+	 * 
+	 * @param vehicle    agent for which the plan is computed
+	 * @param tasks      set of the tasks assigned to the vehicle
+	 * @param cancelled  flag stopping the search once set, null if it cannot be
+	 *                   cancelled
+	 * @param statistics metrics to which those of the search are added
+	 * @return a Plan object.
+	 */
+	private Plan vehiclePlan(Vehicle vehicle, TaskSet tasks, AtomicBoolean cancelled,
+			SearchStatistics statistics) {
+		DeliberativeAgent planner = copy();
+		planner.capacity = vehicle.capacity();
+		planner.costPerKm = vehicle.costPerKm();
+		planner.initCarriedTasks = vehicle.getCurrentTasks().isEmpty() ? null : vehicle.getCurrentTasks();
+		planner.cancelled = cancelled;
+		Plan plan = planner.plan(vehicle, tasks);
+		synchronized (statistics) {
+			statistics.merge(planner.getStatistics());
+		}
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan by racing the configurations of the portfolio,
+	 * each on a copy of the agent, and reports which one won. Each search dumps
+	 * its own metrics, and those of the winner are also added to the metrics of
+	 * the portfolio.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan portfolioPlan(Vehicle vehicle, TaskSet tasks) {
+		Map<PortfolioSolver.Configuration, SearchStatistics> raceStatistics = new ConcurrentHashMap<>();
+		PortfolioSolver.Race race = this.portfolio.race(this.cancelled, (configuration, cancelled) -> {
+			DeliberativeAgent planner = copy();
+			planner.algorithm = configuration.getAlgorithm();
+			planner.heuristicId = configuration.getHeuristicId();
+			planner.cancelled = cancelled;
+			Plan racePlan = planner.plan(vehicle, tasks);
+			raceStatistics.put(configuration, planner.getStatistics());
+			return racePlan;
+		});
+
+		PortfolioSolver.Configuration winner = race.getWinner();
+		this.statistics.merge(raceStatistics.get(winner));
+		System.out.println("Portfolio winner: " + winner + (winner.isOptimal() ? "" : " (not proven optimal)")
+				+ " in " + race.getTime() + " ms, among " + race.getConfigurations());
+		return race.getPlan();
+	}
+
+	/**
+	 * Helper function copying the agent for a search run concurrently with others.
+	 * The copy does not replan incrementally, since its searches are not the ones
+	 * the agent continues from.
+	 */
+	private DeliberativeAgent copy() {
+		DeliberativeAgent planner;
+		try {
+			planner = (DeliberativeAgent) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError("Should not happen.", e);
+		}
+		planner.fleetMode = false;
+		planner.incrementalReplanning = false;
+		planner.searchMemory = null;
+		planner.lastSolver = null;
+		return planner;
+	}
+
+	/**
+	 * Helper function appending the metrics of the last search as a line of JSON
+	 * to the statistics file, if one is set.
+	 */
+	private void dumpStatistics() {
+		if (this.statisticsFile.isEmpty())
+			return;
+		try (PrintWriter writer = new PrintWriter(new FileWriter(this.statisticsFile, true))) {
+			writer.println(this.statistics.toJson());
+		} catch (IOException e) {
+			System.out.println("Could not write the search statistics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method returning the metrics of the last search.
+	 */
+	public SearchStatistics getStatistics() {
+		return statistics;
+	}
+
 	/**
 	 * Method that computes a plan using the BFS algorithm.
 	 * 
@@ -106,159 +446,64 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		City vehicleStartCity = vehicle.getCurrentCity();
 		Plan plan = new Plan(vehicleStartCity);
 
-		// Instantiate the FCFS queue as a LinkedList
-		LinkedList<BFSNode> queue = new LinkedList<>();
+		// Instantiate the FCFS queue of node indices, and the set of the indices
+		// currently in it
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		BitSet queued = new BitSet();
 
-		// Compute the initial state
-		State initialState;
-		if (this.initCarriedTasks == null)
-			initialState = new State(vehicleStartCity, tasks);
-		else {
-			// It can happen that the two sets don't match because of concurrency issues,
-			// only trust the intersection
-			TaskSet tasksLeftToDeliver = TaskSet.intersect(this.initCarriedTasks, vehicle.getCurrentTasks());
-			initialState = new State(vehicleStartCity, tasks, tasksLeftToDeliver);
-		}
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
 
-		// Create the root node and enqueue it
-		BFSNode root = new BFSNode(initialState, null, 0, null);
-		queue.add(root);
+		// Create a table for storing visited states and the index of their
+		// corresponding nodes in order to detect loops, pre-sized from an estimate of
+		// the number of states, and the arena of the nodes, indexed like the table
+		int expectedNumStates = StateTable.estimateNumStates(this.topology.size(), taskIndex.getNumTasks());
+		StateTable visitedStates = new StateTable(taskIndex.getNumWords(), expectedNumStates);
+		NodeArena nodes = new NodeArena(expectedNumStates);
 
-		// Create a map for storing visited states and their corresponding nodes in
-		// order to detect loops
-		HashMap<State, BFSNode> visitedStates = new HashMap<>();
-		visitedStates.put(initialState, root);
+		// Create the root node
+		int root = nodes.add(-1, 0, 0, NodeArena.ROOT, 0);
+		visitedStates.putIfAbsent(initialState, root);
+		queue.add(root);
+		queued.set(root);
 
-		// Create a priority queue (min heap) for storing all goal nodes => they will be
-		// automatically ordered by g(n) as compareTo is implemented
-		PriorityQueue<BFSNode> goalNodes = new PriorityQueue<>();
+		// Keep track of the cheapest goal node found so far
+		int bestGoalNode = -1;
 
 		while (!queue.isEmpty()) {
 
 			// Check whether we have timed out on the 1 minute available for execution
-			Instant end = Instant.now();
-			Duration timeElapsed = Duration.between(start, end);
-			if (timeElapsed.getSeconds() >= 60) {
-				System.out.println("Timed out when building plan.");
-				System.exit(1);
-			}
+			successors.checkTimeout(start);
 
 			// Dequeue a node from the FCFS queue and get its state
-			BFSNode currentNode = queue.poll();
-			State currentState = currentNode.getState();
+			this.statistics.sizes(queue.size(), visitedStates.size());
+			int currentIndex = queue.poll();
+			queued.clear(currentIndex);
+			State currentState = visitedStates.getState(currentIndex, taskIndex);
 
-			// All goal nodes should be collected and sorted
+			// All goal nodes should be compared to keep the cheapest one
 			if (currentState.isGoalState()) {
-				goalNodes.add(currentNode);
+				this.statistics.goalFound();
+				if (bestGoalNode < 0 || nodes.getgCost(currentIndex) < nodes.getgCost(bestGoalNode))
+					bestGoalNode = currentIndex;
 				continue;
 			}
 
-			City currentLocation = currentState.getLocation();
-			TaskSet currentTasksToPickup = currentState.getTasksToPickup();
-			TaskSet currentTasksToDeliver = currentState.getTasksToDeliver();
-
-			State nextState = null;
-			BFSNode childNode = null;
-
-			// Enqueue all new unique states created by possible MOVE actions
-			// Can only MOVE to a neighbor node
-			for (City neighborCity : currentLocation.neighbors()) {
-				// Compute the new state, new node and the new g(n)
-				nextState = new State(neighborCity, currentTasksToPickup, currentTasksToDeliver);
-				double updatedCost = currentNode.getgCost() + this.costPerKm * currentLocation.distanceTo(neighborCity);
-				childNode = new BFSNode(nextState, currentNode, updatedCost, new Move(neighborCity));
-
-				// Loop detection
-				if (!visitedStates.containsKey(nextState)) {
-					queue.add(childNode);
-					visitedStates.put(nextState, childNode);
-				} else {
-					// If loop detected, only substitute the node if its cost is less than the one
-					// with the same state in the queue
-					BFSNode n = visitedStates.get(nextState);
-					if (childNode.getgCost() < n.getgCost()) {
-						n.setParent(childNode.getParent());
-						n.setgCost(childNode.getgCost());
-						n.setActionPerformed(childNode.getActionPerformed());
-					}
-				}
-			}
-
-			// Enqueue all new unique states created by possible PICKUP actions
-			// Can only PICKUP a task if currently located in its pickup city and the weight
-			// capacity limit is not breached
-			for (Task t : currentTasksToPickup) {
-				if (t.pickupCity.equals(currentLocation)
-						&& t.weight + currentTasksToDeliver.weightSum() <= this.capacity) {
-					// Compute the new state, new node and the new g(n)
-					TaskSet leftTasksToPickup = TaskSet.copyOf(currentTasksToPickup);
-					leftTasksToPickup.remove(t);
-					TaskSet newTasksToDeliver = TaskSet.copyOf(currentTasksToDeliver);
-					newTasksToDeliver.add(t);
-					nextState = new State(currentLocation, leftTasksToPickup, newTasksToDeliver);
-					double updatedCost = currentNode.getgCost();
-					childNode = new BFSNode(nextState, currentNode, updatedCost, new Pickup(t));
-
-					// Loop detection
-					if (!visitedStates.containsKey(nextState)) {
-						queue.add(childNode);
-						visitedStates.put(nextState, childNode);
-					} else {
-						// If loop detected, only substitute the node if its cost is less than the one
-						// with the same state in the queue
-						BFSNode n = visitedStates.get(nextState);
-						if (childNode.getgCost() < n.getgCost()) {
-							n.setParent(childNode.getParent());
-							n.setgCost(childNode.getgCost());
-							n.setActionPerformed(childNode.getActionPerformed());
-						}
-					}
-				}
-			}
-			
-			TaskSet tmpTasksToDeliver = TaskSet.copyOf(currentTasksToDeliver);
-			boolean deliveryPossible = false; // true iff there is something to deliver in currentLocation
-			
-			// Add all new unique states created by possible DELIVER actions to the tree
-			// Can only DELIVER a task if currently located in its delivery city
-			for (Task t : currentTasksToDeliver) {
-				if (t.deliveryCity.equals(currentLocation)) {
-					deliveryPossible = true;
-					// Compute the new state, new node and the new g(n)
-					tmpTasksToDeliver.remove(t);
-					nextState = new State(currentLocation, currentTasksToPickup, tmpTasksToDeliver);
-					double updatedCost = currentNode.getgCost() - t.reward;
-					childNode = new BFSNode(nextState, currentNode, updatedCost, new Delivery(t));
-					currentNode = childNode;
-				}
-			}
-			
-			// Add only the deepest node to the queue of the nodes that still have to be explored 
-			if (deliveryPossible) {
-				// Loop detection
-				if (!visitedStates.containsKey(nextState)) {
-					queue.add(childNode);
-					visitedStates.put(nextState, childNode);
-				} else {
-					// If loop detected, only substitute the node if its cost is less than the one
-					// with the same state in the queue
-					BFSNode n = visitedStates.get(nextState);
-					if (childNode.getgCost() < n.getgCost()) {
-						n.setParent(childNode.getParent());
-						n.setgCost(childNode.getgCost());
-						n.setActionPerformed(childNode.getActionPerformed());
-					}
-				} 
-			}
-
+			// Enqueue all new unique states created by possible MOVE, PICKUP and DELIVER
+			// actions, with loop detection
+			successors.expand(currentState, nodes.getgCost(currentIndex), false, this.statistics,
+					(state, gCost, hCost, opcode, argument) -> addBFSNode(state, currentIndex, gCost, opcode,
+							argument, nodes, visitedStates, queue, queued));
 		}
 
 		System.out.println("Total number of states considered: " + visitedStates.size());
+		this.statistics.setBytesPerNode(NodeArena.BYTES_PER_NODE + StateTable.bytesPerEntry(taskIndex.getNumWords()));
 
-		// Infer the plan for the optimal goal node, located at the top of the priority
-		// queue
-		if (!goalNodes.isEmpty())
-			goalNodes.peek().inferPlan(plan);
+		// Infer the plan for the optimal goal node
+		if (bestGoalNode >= 0)
+			nodes.inferPlan(bestGoalNode, plan, visitedStates, taskIndex);
 
 		return plan;
 
@@ -276,169 +521,681 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		// Start the execution timer
 		Instant start = Instant.now();
 
-		// Set the static heuristic id for all State objects
-		State.setHeuristicId(this.heuristicId);
-
 		// Initialize an empty plan
 		City vehicleStartCity = vehicle.getCurrentCity();
 		Plan plan = new Plan(vehicleStartCity);
 
-		// Create a priority queue (min heap) for storing all nodes => they will be
-		// automatically ordered by f(n) as compareTo is implemented
-		PriorityQueue<AStarNode> queue = new PriorityQueue<>();
+		// Create an indexed priority queue (min heap) for storing the indices of all
+		// nodes to be expanded, ordered by f(n)
+		IndexedMinHeap queue = new IndexedMinHeap(1024);
 
-		// Compute the initial state
-		State initialState;
-		if (this.initCarriedTasks == null)
-			initialState = new State(vehicleStartCity, tasks);
-		else {
-			// It can happen that the two sets don't match because of concurrency issues,
-			// only trust the intersection
-			TaskSet tasksLeftToDeliver = TaskSet.intersect(this.initCarriedTasks, vehicle.getCurrentTasks());
-			initialState = new State(vehicleStartCity, tasks, tasksLeftToDeliver);
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Reuse the previous searches, returning the cached plan at once if the
+		// initial state is in the plan cache
+		PlanCache.Leaves leaves = reusePreviousSearches(taskIndex, successors);
+		int rootLeaf = leaves == null ? -1 : leaves.find(initialState);
+		if (rootLeaf >= 0) {
+			System.out.println("Plan found in the cache.");
+			this.statistics.goalFound();
+			leaves.appendActions(rootLeaf, plan);
+			return plan;
 		}
 
-		// Create the root node and enqueue it
-		AStarNode root = new AStarNode(initialState, null, 0, initialState.getHCost(costPerKm), null);
-		queue.add(root);
+		// Create a table for storing visited states and the index of their
+		// corresponding nodes in order to detect loops, pre-sized from an estimate of
+		// the number of states, and the arena of the nodes, indexed like the table
+		int expectedNumStates = StateTable.estimateNumStates(this.topology.size(), taskIndex.getNumTasks());
+		StateTable visitedStates = new StateTable(taskIndex.getNumWords(), expectedNumStates);
+		NodeArena nodes = new NodeArena(expectedNumStates);
 
-		// Create a map for storing visited states and their corresponding nodes in
-		// order to detect loops
-		HashMap<State, AStarNode> visitedStates = new HashMap<>();
-		visitedStates.put(initialState, root);
+		// Create the root node
+		int root = nodes.add(-1, 0, successors.hCost(initialState, this.statistics), NodeArena.ROOT, 0);
+		visitedStates.putIfAbsent(initialState, root);
+		queue.push(root, nodes.getfCost(root));
 
 		while (!queue.isEmpty()) {
 
 			// Check whether we have timed out on the 1 minute available for execution
-			Instant end = Instant.now();
-			Duration timeElapsed = Duration.between(start, end);
-			if (timeElapsed.getSeconds() >= 60) {
-				System.out.println("Timed out when building plan.");
-				System.exit(1);
-			}
+			successors.checkTimeout(start);
 
 			// Dequeue the current optimal node and get its state
-			AStarNode currentNode = queue.poll();
-			State currentState = currentNode.getState();
+			this.statistics.sizes(queue.size(), visitedStates.size());
+			int currentIndex = queue.poll();
+			State currentState = visitedStates.getState(currentIndex, taskIndex);
 
-			// If the current optimal node is a goal node, infer the plan from it and return
-			if (currentState.isGoalState()) {
+			// If the current optimal node is a goal node, or a cached state whose f(n) is
+			// exact, infer the plan from it, followed by the cached actions, and return
+			int leaf = leaves == null ? -1 : leaves.find(currentState);
+			if (currentState.isGoalState() || leaf >= 0) {
 				System.out.println("Total number of states considered: " + visitedStates.size());
-				currentNode.inferPlan(plan);
+				this.statistics.goalFound();
+				this.statistics.setBytesPerNode(NodeArena.BYTES_PER_NODE
+						+ StateTable.bytesPerEntry(taskIndex.getNumWords()) + IndexedMinHeap.BYTES_PER_ITEM);
+				nodes.inferPlan(currentIndex, plan, visitedStates, taskIndex);
+				if (leaf >= 0)
+					leaves.appendActions(leaf, plan);
+				rememberSearch(taskIndex, vehicleStartCity, plan, nodes, visitedStates, queue,
+						nodes.getfCost(currentIndex));
 				return plan;
 			}
 
-			City currentLocation = currentState.getLocation();
-			TaskSet currentTasksToPickup = currentState.getTasksToPickup();
-			TaskSet currentTasksToDeliver = currentState.getTasksToDeliver();
-
-			State nextState = null;
-			AStarNode childNode = null;
-
-			// Enqueue all new unique states created by possible MOVE actions
-			// Can only MOVE to a neighbor node
-			for (City neighborCity : currentLocation.neighbors()) {
-
-				// Compute the new state, new node and the new g(n) and h(n)
-				nextState = new State(neighborCity, currentTasksToPickup, currentTasksToDeliver);
-				double updatedCost = currentNode.getgCost() + this.costPerKm * currentLocation.distanceTo(neighborCity);
-				childNode = new AStarNode(nextState, currentNode, updatedCost, nextState.getHCost(costPerKm),
-						new Move(neighborCity));
-
-				// Loop detection
-				if (!visitedStates.containsKey(nextState)) {
-					queue.add(childNode);
-					visitedStates.put(nextState, childNode);
-				} else {
-					// If loop detected, only substitute the node if its cost is less than the one
-					// with the same state in the queue
-					AStarNode n = visitedStates.get(nextState);
-					if (childNode.getfCost() < n.getfCost()) {
-						n.setParent(childNode.getParent());
-						n.setgCost(childNode.getgCost());
-						n.sethCost(childNode.gethCost());
-						n.setActionPerformed(childNode.getActionPerformed());
-					}
+			// Enqueue all new unique states created by possible MOVE, PICKUP and DELIVER
+			// actions, with loop detection
+			successors.expand(currentState, nodes.getgCost(currentIndex), true, this.statistics,
+					(state, gCost, hCost, opcode, argument) -> addAStarNode(state, currentIndex, gCost, hCost, opcode,
+							argument, nodes, visitedStates, queue));
+		}
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using the A* algorithm with a frontier spilled
+	 * to disk. Only the nodes of the bucket with the lowest f(n) are kept in a
+	 * queue ordered by f(n), all the others are appended to the bucket of their
+	 * f(n) without checking whether their state was already visited. When a bucket
+	 * is loaded, its duplicate nodes are dropped in a batch against the visited
+	 * states, keeping the cheapest path to each state. Like the A* algorithm in
+	 * memory, it reuses the plan cache and the bounds of the previous search, the
+	 * nodes on disk never having been visited.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan externalAStarPlan(Vehicle vehicle, TaskSet tasks) {
+
+		// Start the execution timer
+		Instant start = Instant.now();
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Reuse the previous searches, returning the cached plan at once if the
+		// initial state is in the plan cache
+		PlanCache.Leaves leaves = reusePreviousSearches(taskIndex, successors);
+		int rootLeaf = leaves == null ? -1 : leaves.find(initialState);
+		if (rootLeaf >= 0) {
+			System.out.println("Plan found in the cache.");
+			this.statistics.goalFound();
+			leaves.appendActions(rootLeaf, plan);
+			return plan;
+		}
+
+		// Create a table for storing visited states and the index of their
+		// corresponding nodes, and the arena of the nodes, indexed like the table
+		int expectedNumStates = StateTable.estimateNumStates(this.topology.size(), taskIndex.getNumTasks());
+		StateTable visitedStates = new StateTable(taskIndex.getNumWords(), expectedNumStates);
+		NodeArena nodes = new NodeArena(expectedNumStates);
+
+		// Create the queue of the nodes of the current bucket, ordered by f(n), and the
+		// frontier holding the nodes of the next buckets
+		IndexedMinHeap queue = new IndexedMinHeap(1024);
+		try (ExternalFrontier frontier = new ExternalFrontier(taskIndex.getNumWords(), this.frontierBucketWidth,
+				this.frontierMemory)) {
+			frontier.add(initialState, 0, successors.hCost(initialState, this.statistics), -1, NodeArena.ROOT, 0);
+			long currentBucket = Long.MIN_VALUE;
+
+			while (!queue.isEmpty() || !frontier.isEmpty()) {
+
+				// Check whether we have timed out on the 1 minute available for execution
+				successors.checkTimeout(start);
+
+				// Once the current bucket is exhausted load the next one, dropping the
+				// duplicate nodes with loop detection
+				if (queue.isEmpty()) {
+					currentBucket = frontier.lowestBucket();
+					frontier.pollLowestBucket((state, gCost, hCost, parent, opcode, argument) -> addAStarNode(state,
+							parent, gCost, hCost, opcode, argument, nodes, visitedStates, queue));
+					continue;
 				}
-			}
 
-			// Enqueue all new unique states created by possible PICKUP actions
-			// Can only PICKUP a task if currently located in its pickup city and the weight
-			// capacity limit is not breached
-			for (Task t : currentTasksToPickup) {
-				if (t.pickupCity.equals(currentLocation)
-						&& t.weight + currentTasksToDeliver.weightSum() <= this.capacity) {
-					// Compute the new state, new node and the new g(n) and h(n)
-					TaskSet leftTasksToPickup = TaskSet.copyOf(currentTasksToPickup);
-					leftTasksToPickup.remove(t);
-					TaskSet newTasksToDeliver = TaskSet.copyOf(currentTasksToDeliver);
-					newTasksToDeliver.add(t);
-					nextState = new State(currentLocation, leftTasksToPickup, newTasksToDeliver);
-					double updatedCost = currentNode.getgCost();
-					childNode = new AStarNode(nextState, currentNode, updatedCost, nextState.getHCost(costPerKm),
-							new Pickup(t));
-
-					// Loop detection
-					if (!visitedStates.containsKey(nextState)) {
-						queue.add(childNode);
-						visitedStates.put(nextState, childNode);
-					} else {
-						// If loop detected, only substitute the node if its cost is less than the one
-						// with the same state in the queue
-						AStarNode n = visitedStates.get(nextState);
-						if (childNode.getfCost() < n.getfCost()) {
-							n.setParent(childNode.getParent());
-							n.setgCost(childNode.getgCost());
-							n.sethCost(childNode.gethCost());
-							n.setActionPerformed(childNode.getActionPerformed());
-						}
-					}
+				// Dequeue the current optimal node and get its state
+				this.statistics.sizes(queue.size() + frontier.size(), visitedStates.size());
+				int currentIndex = queue.poll();
+				State currentState = visitedStates.getState(currentIndex, taskIndex);
+
+				// If the current optimal node is a goal node, or a cached state whose f(n) is
+				// exact, infer the plan from it, followed by the cached actions, and return
+				int leaf = leaves == null ? -1 : leaves.find(currentState);
+				if (currentState.isGoalState() || leaf >= 0) {
+					System.out.println("Total number of states considered: " + visitedStates.size()
+							+ ", nodes spilled to disk: " + frontier.getSpilledRecords());
+					this.statistics.goalFound();
+					this.statistics.setBytesPerNode(NodeArena.BYTES_PER_NODE
+							+ StateTable.bytesPerEntry(taskIndex.getNumWords()) + IndexedMinHeap.BYTES_PER_ITEM);
+					nodes.inferPlan(currentIndex, plan, visitedStates, taskIndex);
+					if (leaf >= 0)
+						leaves.appendActions(leaf, plan);
+					rememberSearch(taskIndex, vehicleStartCity, plan, nodes, visitedStates, queue,
+							nodes.getfCost(currentIndex));
+					return plan;
 				}
+
+				// The children in the current bucket are added to the queue with loop
+				// detection, the others are appended to the frontier
+				long expandedBucket = currentBucket;
+				successors.expand(currentState, nodes.getgCost(currentIndex), true, this.statistics,
+						(state, gCost, hCost, opcode, argument) -> {
+							if (frontier.bucketOf(gCost + hCost) <= expandedBucket)
+								addAStarNode(state, currentIndex, gCost, hCost, opcode, argument, nodes,
+										visitedStates, queue);
+							else
+								frontier.add(state, gCost, hCost, currentIndex, opcode, argument);
+						});
 			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Helper function for the A* algorithms tightening the heuristic of a new
+	 * search with the bounds learned by the previous search when replanning, and
+	 * with the exact cost to go of the states in the plan cache.
+	 *
+	 * @param taskIndex  index of the tasks of the new search
+	 * @param successors generator of the children of the new search
+	 * @return the leaves of the plan cache, null if the cache is disabled
+	 */
+	private PlanCache.Leaves reusePreviousSearches(TaskIndex taskIndex, SuccessorGenerator successors) {
+		if (this.searchMemory != null && this.searchMemory.translateTo(taskIndex)) {
+			System.out.println("Reusing the bounds of " + this.searchMemory.size() + " states.");
+			successors.setMemory(this.searchMemory);
+		}
+		this.searchMemory = null;
+
+		if (this.planCache == null)
+			return null;
+		PlanCache.Leaves leaves = this.planCache.leaves(taskIndex, this.capacity, this.costPerKm);
+		successors.setLeaves(leaves);
+		return leaves;
+	}
 
-			TaskSet tmpTasksToDeliver = TaskSet.copyOf(currentTasksToDeliver);
-			boolean deliveryPossible = false; // true iff there is something to deliver in currentLocation
-			
-			// Add all new unique states created by possible DELIVER actions to the tree
-			// Can only DELIVER a task if currently located in its delivery city
-			for (Task t : currentTasksToDeliver) {
-				if (t.deliveryCity.equals(currentLocation)) {
-					deliveryPossible = true;
-					// Compute the new state, new node and the new g(n) and h(n)
-					tmpTasksToDeliver.remove(t);
-					nextState = new State(currentLocation, currentTasksToPickup, tmpTasksToDeliver);
-					double updatedCost = currentNode.getgCost() - t.reward;
-					childNode = new AStarNode(nextState, currentNode, updatedCost, nextState.getHCost(costPerKm),
-							new Delivery(t));
-					currentNode = childNode;
+	/**
+	 * Helper function for the A* algorithms keeping what the next searches can
+	 * reuse once the goal is found, when the plan is optimal: the bounds of the
+	 * expanded states when replanning incrementally, which only bound the cost to
+	 * go if the cost of the goal is optimal, and the states of the plan in the plan
+	 * cache.
+	 *
+	 * @param taskIndex     index of the tasks of the search
+	 * @param start         city of the vehicle at the start of the plan
+	 * @param plan          plan found by the search
+	 * @param nodes         all the nodes of the search, by index
+	 * @param visitedStates table of the visited states and their node index
+	 * @param queue         queue of the indices of the nodes still to be expanded
+	 * @param goalCost      f(n) of the goal node
+	 */
+	private void rememberSearch(TaskIndex taskIndex, City start, Plan plan, NodeArena nodes,
+			StateTable visitedStates, IndexedMinHeap queue, double goalCost) {
+		if (!State.isAdmissible(this.heuristicId))
+			return;
+		if (this.incrementalReplanning)
+			this.searchMemory = learnCostToGo(taskIndex, nodes, visitedStates, queue, goalCost);
+		if (this.planCache != null)
+			this.planCache.store(taskIndex, start, plan, this.capacity, this.costPerKm);
+	}
+
+	/**
+	 * Helper function for the A* algorithm computing the bounds of the cost to go
+	 * of the expanded states once the goal is found: the cost of the goal minus
+	 * their g(n).
+	 * 
+	 * @param taskIndex     index of the tasks of the search
+	 * @param nodes         all the nodes of the search, by index
+	 * @param visitedStates table of the visited states and their node index
+	 * @param queue         queue of the indices of the nodes still to be expanded
+	 * @param goalCost      g(n) of the goal node
+	 * @return the memory of the search
+	 */
+	private SearchMemory learnCostToGo(TaskIndex taskIndex, NodeArena nodes, StateTable visitedStates,
+			IndexedMinHeap queue, double goalCost) {
+		double[] costToGo = new double[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++)
+			costToGo[i] = queue.contains(i) ? Double.NEGATIVE_INFINITY : goalCost - nodes.getgCost(i);
+		return new SearchMemory(taskIndex, visitedStates, costToGo);
+	}
+
+	/**
+	 * Method that computes the plan using the hash-distributed parallel A*
+	 * algorithm, with at most one worker per available processor, or the A*
+	 * algorithm if there is a single one.
+	 *
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan parallelAStarPlan(Vehicle vehicle, TaskSet tasks) {
+
+		// Workers sharing a processor only expand more nodes than a single search
+		int numWorkers = Math.min(this.numThreads, Runtime.getRuntime().availableProcessors());
+		if (numWorkers <= 1) {
+			System.out.println("Single worker available, using A*.");
+			return aStarPlan(vehicle, tasks);
+		}
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Create the root node and search from it with all the workers
+		AStarNode root = new AStarNode(initialState, null, 0, successors.hCost(initialState, this.statistics), null);
+		ParallelAStar search = new ParallelAStar(successors, numWorkers);
+		AStarNode goalNode = search.search(root, this.statistics);
+
+		System.out.println("Total number of states considered: " + search.getNumStatesConsidered());
+		System.out.println("Nodes expanded by each worker: " + Arrays.toString(search.getNumExpansions()));
+
+		// Infer the plan for the optimal goal node
+		if (goalNode != null)
+			goalNode.inferPlan(plan, taskIndex);
+
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using the memory-bounded IDA* algorithm, and
+	 * reports the peak memory usage of the search.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan iterativeDeepeningAStarPlan(Vehicle vehicle, TaskSet tasks) {
+
+		resetPeakHeapUsage();
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Create the root node and search from it
+		AStarNode root = new AStarNode(initialState, null, 0, successors.hCost(initialState, this.statistics), null);
+		IterativeDeepeningAStar search = new IterativeDeepeningAStar(successors, this.maxTableSize);
+		AStarNode goalNode = search.search(root, this.statistics);
+
+		System.out.println("Total number of states considered: " + search.getNumStatesConsidered());
+		System.out.println("Iterations: " + search.getNumIterations() + ", expansions: " + search.getNumExpansions()
+				+ ", maximum depth: " + search.getMaxDepth());
+		System.out.println("Peak memory usage: transposition table " + (search.memoryFootprint() >> 10)
+				+ " KB, heap " + (peakHeapUsage() >> 20) + " MB");
+
+		// Infer the plan for the optimal goal node
+		if (goalNode != null)
+			goalNode.inferPlan(plan, taskIndex);
+
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using beam searches of all the configured
+	 * widths, run concurrently, and keeps the cheapest plan.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan beamPlan(Vehicle vehicle, TaskSet tasks) {
+
+		resetPeakHeapUsage();
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Run one search per width on a pool of threads, each with its own metrics
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(this.numThreads,
+				this.beamWidths.length)));
+		List<BeamSearch> searches = new ArrayList<>();
+		List<SearchStatistics> searchStatistics = new ArrayList<>();
+		List<Future<Integer>> goalNodes = new ArrayList<>();
+		for (int width : this.beamWidths) {
+			BeamSearch search = new BeamSearch(successors, width);
+			SearchStatistics statistics = new SearchStatistics(this.statistics.getAlgorithm(), tasks.size());
+			searches.add(search);
+			searchStatistics.add(statistics);
+			goalNodes.add(pool.submit(() -> search.search(taskIndex.initialState(vehicleStartCity), statistics)));
+		}
+
+		// Keep the cheapest plan
+		BeamSearch bestSearch = null;
+		int bestGoalNode = -1;
+		try {
+			for (int i = 0; i < searches.size(); i++) {
+				int goalNode = goalNodes.get(i).get();
+				BeamSearch search = searches.get(i);
+				this.statistics.merge(searchStatistics.get(i));
+				System.out.println("Beam width " + search.getWidth() + ": "
+						+ (goalNode < 0 ? "no plan" : "plan cost " + search.getgCost(goalNode)) + ", depth "
+						+ search.getDepth() + ", nodes " + search.getNumNodes());
+				if (goalNode >= 0
+						&& (bestSearch == null || search.getgCost(goalNode) < bestSearch.getgCost(bestGoalNode))) {
+					bestSearch = search;
+					bestGoalNode = goalNode;
 				}
 			}
-			
-			// Add only the deepest node to the queue of the nodes that still have to be explored 
-			if (deliveryPossible) {
-				// Loop detection
-				if (!visitedStates.containsKey(nextState)) {
-					queue.add(childNode);
-					visitedStates.put(nextState, childNode);
-				} else {
-					// If loop detected, only substitute the node if its cost is less than the one
-					// with the same state in the queue
-					AStarNode n = visitedStates.get(nextState);
-					if (childNode.getfCost() < n.getfCost()) {
-						n.setParent(childNode.getParent());
-						n.setgCost(childNode.getgCost());
-						n.sethCost(childNode.gethCost());
-						n.setActionPerformed(childNode.getActionPerformed());
-					}
-				} 
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the beam searches.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Beam search failed.", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("Peak heap usage: " + (peakHeapUsage() >> 20) + " MB");
+
+		if (bestSearch != null)
+			bestSearch.inferPlan(bestGoalNode, plan);
+
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using the depth-first branch-and-bound
+	 * algorithm, and reports the peak memory usage of the search.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan branchAndBoundPlan(Vehicle vehicle, TaskSet tasks) {
+
+		resetPeakHeapUsage();
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Create the root node and search from it
+		AStarNode root = new AStarNode(initialState, null, 0, successors.hCost(initialState, this.statistics), null);
+		DepthFirstBranchAndBound search = new DepthFirstBranchAndBound(successors);
+		AStarNode goalNode = search.search(root, this.statistics);
+
+		System.out.println("Expansions: " + this.statistics.getNumExpanded() + ", maximum depth: "
+				+ search.getMaxDepth() + ", peak heap usage: " + (peakHeapUsage() >> 20) + " MB");
+
+		// Infer the plan for the optimal goal node
+		if (goalNode != null)
+			goalNode.inferPlan(plan, taskIndex);
+
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using the anytime ARA* algorithm, which returns
+	 * the best plan found when the deadline is reached instead of failing.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan anytimeAStarPlan(Vehicle vehicle, TaskSet tasks) {
+
+		// Compute the deadline of the search
+		long deadline = System.nanoTime() + this.deadline * 1_000_000L;
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks and compute the initial state
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+		State initialState = taskIndex.initialState(vehicleStartCity);
+		SuccessorGenerator successors = newSuccessorGenerator(taskIndex);
+
+		// Create the root node and search from it
+		AStarNode root = new AStarNode(initialState, null, 0, successors.hCost(initialState, this.statistics), null);
+		AnytimeRepairingAStar search = new AnytimeRepairingAStar(successors, this.initialEpsilon, this.epsilonStep);
+		AStarNode goalNode = search.search(root, deadline, this.statistics);
+
+		System.out.println("Total number of states considered: " + search.getNumStatesConsidered());
+
+		// Infer the plan for the best goal node, or deliver the tasks one after the
+		// other if no plan was found before the deadline
+		if (goalNode != null)
+			goalNode.inferPlan(plan, taskIndex);
+		else
+			appendSequentialPlan(plan, vehicleStartCity, taskIndex);
+
+		return plan;
+	}
+
+	/**
+	 * Method that computes the plan using the exact dynamic programming solver, or
+	 * the A* algorithm if its table would not fit in memory.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return a Plan object.
+	 */
+	private Plan dynamicProgrammingPlan(Vehicle vehicle, TaskSet tasks) {
+
+		// Initialize an empty plan
+		City vehicleStartCity = vehicle.getCurrentCity();
+		Plan plan = new Plan(vehicleStartCity);
+
+		// Index the tasks
+		TaskIndex taskIndex = buildTaskIndex(vehicle, tasks);
+
+		// When replanning, the table of the previous plan still holds the exact cost
+		// to go of the remaining tasks
+		if (this.lastSolver != null) {
+			int statuses = this.lastSolver.statusesOf(taskIndex);
+			if (statuses >= 0) {
+				System.out.println("Reusing the dynamic programming table.");
+				this.lastSolver.appendPlan(plan, vehicleStartCity, statuses);
+				return plan;
 			}
+			this.lastSolver = null;
+		}
+
+		// Check the size of the table
+		DynamicProgrammingSolver solver = new DynamicProgrammingSolver(this.topology, taskIndex, this.capacity,
+				this.costPerKm);
+		solver.setCancelled(this.cancelled);
+		long tableSize = solver.tableSize(vehicleStartCity);
+		if (tableSize > Math.min(this.maxDPTableSize, DynamicProgrammingSolver.MAX_TABLE_SIZE)) {
+			System.out.println("Dynamic programming table too large (" + tableSize + " entries), using A*.");
+			return aStarPlan(vehicle, tasks);
 		}
+
+		// Fill the table and follow the optimal events from the start city
+		double travelCost = solver.solve(vehicleStartCity, this.statistics);
+		System.out.println("Total number of states considered: " + solver.getNumStatesConsidered());
+		if (travelCost < Double.POSITIVE_INFINITY)
+			solver.appendPlan(plan);
+		this.lastSolver = this.incrementalReplanning ? solver : null;
+
 		return plan;
 	}
 
+	/**
+	 * Helper function creating the generator of the children of a search, with the
+	 * heuristic of the agent, which stops the search if its portfolio cancels it.
+	 */
+	private SuccessorGenerator newSuccessorGenerator(TaskIndex taskIndex) {
+		SuccessorGenerator successors = new SuccessorGenerator(this.topology, taskIndex, this.capacity,
+				this.costPerKm, this.macroActions, this.heuristicId);
+		successors.setCancelled(this.cancelled);
+		return successors;
+	}
+
+	/**
+	 * Helper function appending to the plan the delivery of the carried tasks,
+	 * followed by the pickup and delivery of the other tasks one at a time, which
+	 * never exceeds the capacity of the vehicle.
+	 * 
+	 * @param plan      plan to which action have to be added
+	 * @param current   city in which the vehicle is located
+	 * @param taskIndex index of the tasks of the search
+	 */
+	private void appendSequentialPlan(Plan plan, City current, TaskIndex taskIndex) {
+		State initialState = taskIndex.initialState(current);
+		long[] tasksToDeliver = initialState.getTasksToDeliver();
+		for (int t = TaskIndex.nextSetBit(tasksToDeliver, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToDeliver, t + 1)) {
+			Task task = taskIndex.getTask(t);
+			for (City city : current.pathTo(task.deliveryCity))
+				plan.appendMove(city);
+			plan.appendDelivery(task);
+			current = task.deliveryCity;
+		}
+
+		long[] tasksToPickup = initialState.getTasksToPickup();
+		for (int t = TaskIndex.nextSetBit(tasksToPickup, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToPickup, t + 1)) {
+			Task task = taskIndex.getTask(t);
+			for (City city : current.pathTo(task.pickupCity))
+				plan.appendMove(city);
+			plan.appendPickup(task);
+			for (City city : task.path())
+				plan.appendMove(city);
+			plan.appendDelivery(task);
+			current = task.deliveryCity;
+		}
+	}
+
+	/**
+	 * Helper function resetting the peak usage of the heap memory pools of the JVM.
+	 */
+	static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+	}
+
+	/**
+	 * Helper function returning the peak usage (in bytes) of the heap memory pools
+	 * of the JVM since the last reset.
+	 */
+	static long peakHeapUsage() {
+		long peakUsage = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peakUsage += pool.getPeakUsage().getUsed();
+		return peakUsage;
+	}
+
+	/**
+	 * Helper function for the BFS algorithm adding a newly generated node to the
+	 * search. If its state was already visited only the cheaper path is kept: the
+	 * existing node takes the parent and the cost of the new one and, if it had
+	 * already been expanded, is put back in the queue so that the cheaper cost is
+	 * propagated to its descendants.
+	 * 
+	 * @param state         state of the new node
+	 * @param parent        index of the parent of the new node
+	 * @param gCost         g(n) of the new node
+	 * @param opcode        action creating the new node, as a NodeArena opcode
+	 * @param argument      argument of the action creating the new node
+	 * @param nodes         all the nodes of the search, by index
+	 * @param visitedStates table of the visited states and their node index
+	 * @param queue         FCFS queue of the indices of the nodes to be expanded
+	 * @param queued        set of the indices currently in the queue
+	 */
+	private void addBFSNode(State state, int parent, double gCost, byte opcode, int argument, NodeArena nodes,
+			StateTable visitedStates, ArrayDeque<Integer> queue, BitSet queued) {
+		int visitedIndex = visitedStates.putIfAbsent(state, nodes.size());
+		if (visitedIndex < 0) {
+			int index = nodes.add(parent, gCost, 0, opcode, argument);
+			queue.add(index);
+			queued.set(index);
+		} else if (gCost < nodes.getgCost(visitedIndex)) {
+			nodes.update(visitedIndex, parent, gCost, opcode, argument);
+			if (!queued.get(visitedIndex)) {
+				this.statistics.nodeReopened();
+				queue.add(visitedIndex);
+				queued.set(visitedIndex);
+			}
+		}
+	}
+
+	/**
+	 * Helper function for the A* algorithm adding a newly generated node to the
+	 * search. If its state was already visited only the cheaper path is kept: the
+	 * existing node takes the parent and the cost of the new one and is moved up
+	 * in the queue, or reopened if it had already been expanded.
+	 * 
+	 * @param state         state of the new node
+	 * @param parent        index of the parent of the new node
+	 * @param gCost         g(n) of the new node
+	 * @param hCost         h(n) of the new node
+	 * @param opcode        action creating the new node, as a NodeArena opcode
+	 * @param argument      argument of the action creating the new node
+	 * @param nodes         all the nodes of the search, by index
+	 * @param visitedStates table of the visited states and their node index
+	 * @param queue         queue of the indices of the nodes to be expanded
+	 */
+	private void addAStarNode(State state, int parent, double gCost, double hCost, byte opcode, int argument,
+			NodeArena nodes, StateTable visitedStates, IndexedMinHeap queue) {
+		int visitedIndex = visitedStates.putIfAbsent(state, nodes.size());
+		if (visitedIndex < 0) {
+			int index = nodes.add(parent, gCost, hCost, opcode, argument);
+			queue.push(index, nodes.getfCost(index));
+		} else if (gCost + hCost < nodes.getfCost(visitedIndex)) {
+			nodes.update(visitedIndex, parent, gCost, opcode, argument);
+			if (!queue.contains(visitedIndex))
+				this.statistics.nodeReopened();
+			queue.push(visitedIndex, nodes.getfCost(visitedIndex));
+		}
+	}
+
+	/**
+	 * Method assigning a bit index to the tasks to pickup and to the tasks still
+	 * carried after a cancelled plan, and grouping the interchangeable tasks.
+	 * 
+	 * @param vehicle agent for which the plan is computed
+	 * @param tasks   set of the available tasks to be picked up
+	 * @return the index over all the tasks involved in the search
+	 */
+	private TaskIndex buildTaskIndex(Vehicle vehicle, TaskSet tasks) {
+		TaskSet tasksLeftToDeliver;
+		if (this.initCarriedTasks == null)
+			tasksLeftToDeliver = TaskSet.noneOf(tasks);
+		else
+			// It can happen that the two sets don't match because of concurrency issues,
+			// only trust the intersection
+			tasksLeftToDeliver = TaskSet.intersect(this.initCarriedTasks, vehicle.getCurrentTasks());
+		TaskIndex taskIndex = new TaskIndex(this.topology, tasks, tasksLeftToDeliver, this.spanningTrees,
+				this.patternDatabase);
+		if (this.symmetryReduction)
+			taskIndex.groupInterchangeableTasks();
+		return taskIndex;
+	}
+
 	@Override
 	public void planCancelled(TaskSet carriedTasks) {
 
+		// In fleet mode, the vehicle plans again for its partition instead of the whole
+		// fleet
+		this.fleetReplanning = true;
+
 		if (!carriedTasks.isEmpty()) {
 
 			// It is necessary to remember the remaining undelivered tasks, needed to build
@@ -0,0 +1,106 @@
+package template;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Depth-first branch-and-bound search. The cost of the cheapest goal found so
+ * far (the incumbent) bounds the search: a node whose f(n) is not below it
+ * cannot lead to a cheaper goal and is pruned. The children of a node are
+ * explored in order of f(n), so that a cheap incumbent is found early.
+ *
+ * Only the current path and the children of its nodes are kept in memory, so
+ * the memory used is proportional to the depth of the search. With an
+ * admissible heuristic the last incumbent is optimal.
+ *
+ * Nothing is pruned before the first incumbent is found, so a child whose state
+ * is already on the current path is skipped, which keeps the vehicle from
+ * moving back and forth between cities. Between two task events a simple path
+ * visits each city at most once, so the depth never exceeds twice the number of
+ * tasks times the number of cities, which is checked as well.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class DepthFirstBranchAndBound {
+
+	private SuccessorGenerator successors; // Generator of the child nodes
+	private SearchStatistics statistics; // Metrics of the search
+	private Instant start; // Start time of the search
+
+	private AStarNode incumbent; // Cheapest goal node found so far
+	private double incumbentCost; // Cost of the cheapest goal node found so far
+	private int maxDepth; // Maximum depth of the search path
+	private int depthLimit; // Depth beyond which no node is expanded
+	private HashSet<State> path; // States of the nodes on the current path
+
+	public DepthFirstBranchAndBound(SuccessorGenerator successors) {
+		super();
+		this.successors = successors;
+	}
+
+	/**
+	 * Method running the search from the given root node.
+	 *
+	 * @param root       node of the initial state
+	 * @param statistics metrics of the search, updated while it runs
+	 * @return the optimal goal node, or null if no goal is reachable
+	 */
+	public AStarNode search(AStarNode root, SearchStatistics statistics) {
+		this.start = Instant.now();
+		this.statistics = statistics;
+		this.incumbent = null;
+		this.incumbentCost = Double.POSITIVE_INFINITY;
+		this.maxDepth = 0;
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		this.depthLimit = 2 * Math.max(1, taskIndex.getNumTasks()) * this.successors.getTopology().size();
+		this.path = new HashSet<>();
+
+		depthFirstSearch(root, 0);
+		this.path = null;
+
+		statistics.setBytesPerNode(SearchStatistics.estimateNodeBytes(this.successors.getTaskIndex().getNumWords()));
+		return this.incumbent;
+	}
+
+	private void depthFirstSearch(AStarNode node, int depth) {
+		if (node.getfCost() >= this.incumbentCost)
+			return;
+
+		// A goal node within the bound becomes the new incumbent
+		if (node.getState().isGoalState()) {
+			this.statistics.goalFound();
+			this.incumbent = node;
+			this.incumbentCost = node.getgCost();
+			return;
+		}
+
+		// Check whether we have timed out on the 1 minute available for execution
+		this.successors.checkTimeout(this.start);
+
+		if (depth >= this.depthLimit)
+			return;
+		if (depth > this.maxDepth)
+			this.maxDepth = depth;
+		this.statistics.sizes(depth + 1, 0);
+
+		// Explore the most promising children first, to find a cheap incumbent early,
+		// skipping the states already on the current path
+		List<AStarNode> children = this.successors.expand(node, this.statistics);
+		children.sort(null);
+		this.path.add(node.getState());
+		for (AStarNode childNode : children) {
+			if (childNode.getfCost() >= this.incumbentCost)
+				break;
+			if (!this.path.contains(childNode.getState()))
+				depthFirstSearch(childNode, depth + 1);
+		}
+		this.path.remove(node.getState());
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+}
@@ -0,0 +1,371 @@
+package template;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import logist.plan.Plan;
+import logist.task.Task;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Exact Held-Karp style dynamic programming solver for small instances. Every
+ * task goes through at most three statuses (waiting, carried, delivered), so a
+ * subproblem is given by the status of each task and the city of the last
+ * pickup or delivery. The statuses are packed in a mixed-radix number: a task
+ * waiting to be picked up is a base 3 digit, a task already carried at the
+ * root a base 2 digit, and the digit of a task is the number of its events
+ * already performed.
+ *
+ * Every pickup or delivery adds the place value of its task to the packed
+ * statuses, so the subproblems are solved in decreasing order of the packed
+ * statuses and each one only reads subproblems already solved. The table holds
+ * the minimal travel cost to the goal, and the optimal plan is reconstructed
+ * by following the event that attains it from the root.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class DynamicProgrammingSolver {
+
+	static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8; // Largest array length supported by the JVM
+
+	private Topology topology; // Topology of the search
+	private TaskIndex taskIndex; // Index of the tasks of the search
+	private int capacity; // Total weight capacity of the vehicle
+	private int costPerKm; // Cost per km when moving the vehicle
+
+	private int numTasks; // Number of tasks of the search
+	private int[] radix; // Number of statuses of each task, 3 if waiting at the root and 2 if carried
+	private int[] place; // Place value of the digit of each task in the packed statuses
+	private long numStatuses; // Number of distinct packed statuses
+
+	private City[] locations; // Cities of the task events and the start city, by compact index
+	private int[] pickupLocation; // Compact index of the pickup city of each task
+	private int[] deliveryLocation; // Compact index of the delivery city of each task
+	private int startLocation; // Compact index of the start city
+	private double[][] travelCosts; // Cost of the shortest path between two cities, by compact index
+
+	private double[] table; // Minimal travel cost to the goal, indexed by packed statuses * locations + location
+	private int numStatesConsidered; // Number of subproblems within the capacity of the vehicle
+	private AtomicBoolean cancelled; // Set when the solver has to stop, null if it cannot be cancelled
+
+	public DynamicProgrammingSolver(Topology topology, TaskIndex taskIndex, int capacity, int costPerKm) {
+		super();
+		this.topology = topology;
+		this.taskIndex = taskIndex;
+		this.capacity = capacity;
+		this.costPerKm = costPerKm;
+		this.numTasks = taskIndex.getNumTasks();
+
+		// The place values only fit in an int when the table does, which the caller
+		// checks with tableSize() before solving, the number of statuses saturating at
+		// Long.MAX_VALUE
+		this.radix = new int[this.numTasks];
+		this.place = new int[this.numTasks];
+		this.numStatuses = 1;
+		for (int t = 0; t < this.numTasks; t++) {
+			this.radix[t] = t < taskIndex.getNumInitialPickups() ? 3 : 2;
+			this.place[t] = (int) Math.min(this.numStatuses, Integer.MAX_VALUE);
+			this.numStatuses = saturatedProduct(this.numStatuses, this.radix[t]);
+		}
+	}
+
+	/**
+	 * Method computing the number of entries of the table for the given start
+	 * city, so that the caller can check it fits in memory before solving, or
+	 * Long.MAX_VALUE if it does not even fit in a long.
+	 */
+	public long tableSize(City start) {
+		return saturatedProduct(this.numStatuses, indexLocations(start));
+	}
+
+	/**
+	 * Method filling the table of the minimal travel costs, starting from the
+	 * goal.
+	 *
+	 * @param start      city in which the vehicle is located
+	 * @param statistics metrics of the search, where every subproblem solved
+	 *                   counts as an expanded node and every event as a
+	 *                   generated one
+	 * @return the minimal travel cost of a plan from the start city
+	 * @throws IllegalStateException if the table does not fit in an array
+	 */
+	public double solve(City start, SearchStatistics statistics) {
+		int numLocations = indexLocations(start);
+		long tableSize = saturatedProduct(this.numStatuses, numLocations);
+		if (tableSize > MAX_TABLE_SIZE)
+			throw new IllegalStateException("Dynamic programming table too large (" + tableSize + " entries).");
+		this.table = new double[(int) tableSize];
+		this.numStatesConsidered = 0;
+
+		int[] digits = new int[this.numTasks];
+		double[] bestFromLocation = new double[numLocations];
+		int[] eventLocations = new int[numLocations];
+		int goal = (int) this.numStatuses - 1;
+		long numEvents = 0;
+		decode(goal, digits);
+
+		for (int statuses = goal; statuses >= 0; statuses--, decrement(digits)) {
+			int offset = statuses * numLocations;
+			if (this.cancelled != null && this.cancelled.get())
+				throw new CancellationException("Search cancelled.");
+
+			// Subproblems exceeding the capacity of the vehicle are never reached
+			int carriedWeight = carriedWeight(digits);
+			if (carriedWeight > this.capacity) {
+				Arrays.fill(this.table, offset, offset + numLocations, Double.POSITIVE_INFINITY);
+				continue;
+			}
+			this.numStatesConsidered += numLocations;
+			if (statuses == goal)
+				continue;
+
+			// Best cost to the goal after the next event, for each city it can happen in
+			int numEventLocations = 0;
+			for (int t = 0; t < this.numTasks; t++) {
+				int location = eventLocation(t, digits, carriedWeight);
+				if (location < 0)
+					continue;
+				numEvents++;
+				double cost = this.table[(statuses + this.place[t]) * numLocations + location];
+				if (!contains(eventLocations, numEventLocations, location)) {
+					eventLocations[numEventLocations++] = location;
+					bestFromLocation[location] = cost;
+				} else if (cost < bestFromLocation[location])
+					bestFromLocation[location] = cost;
+			}
+
+			for (int from = 0; from < numLocations; from++) {
+				double best = Double.POSITIVE_INFINITY;
+				double[] travelCostsFrom = this.travelCosts[from];
+				for (int i = 0; i < numEventLocations; i++) {
+					int to = eventLocations[i];
+					double cost = travelCostsFrom[to] + bestFromLocation[to];
+					if (cost < best)
+						best = cost;
+				}
+				this.table[offset + from] = best;
+			}
+		}
+
+		statistics.goalFound();
+		statistics.nodesGenerated(numEvents * numLocations);
+		statistics.sizes(0, this.table.length);
+		statistics.nodesExpanded(this.numStatesConsidered);
+		statistics.setBytesPerNode(8);
+		return this.table[this.startLocation];
+	}
+
+	/**
+	 * Method appending to the plan the optimal sequence of actions from the root,
+	 * by following the events that attain the minimal cost in the table.
+	 *
+	 * @param plan plan to which action have to be added
+	 */
+	public void appendPlan(Plan plan) {
+		appendPlan(plan, this.locations[this.startLocation], 0);
+	}
+
+	/**
+	 * Method appending to the plan the optimal sequence of actions from any city
+	 * and statuses of the tasks. The first move can start outside of the cities of
+	 * the table, all the others start from the city of an event.
+	 *
+	 * @param plan     plan to which action have to be added
+	 * @param start    city in which the vehicle is located
+	 * @param statuses packed statuses of the tasks
+	 */
+	public void appendPlan(Plan plan, City start, int statuses) {
+		int numLocations = this.locations.length;
+		int[] digits = new int[this.numTasks];
+		int goal = (int) this.numStatuses - 1;
+		City current = start;
+
+		while (statuses != goal) {
+			decode(statuses, digits);
+			int carriedWeight = carriedWeight(digits);
+
+			// Find the event minimizing the travel cost to it plus the cost to go after it
+			int next = -1;
+			double best = Double.POSITIVE_INFINITY;
+			for (int t = 0; t < this.numTasks; t++) {
+				int location = eventLocation(t, digits, carriedWeight);
+				if (location < 0)
+					continue;
+				double cost = this.costPerKm * current.distanceTo(this.locations[location])
+						+ this.table[(statuses + this.place[t]) * numLocations + location];
+				if (cost < best) {
+					best = cost;
+					next = t;
+				}
+			}
+			if (next < 0)
+				throw new AssertionError("Should not happen.");
+
+			Task task = this.taskIndex.getTask(next);
+			City destination = this.locations[eventLocation(next, digits, carriedWeight)];
+			for (City city : current.pathTo(destination))
+				plan.appendMove(city);
+			if (this.radix[next] - 1 - digits[next] == 2)
+				plan.appendPickup(task);
+			else
+				plan.appendDelivery(task);
+
+			statuses += this.place[next];
+			current = destination;
+		}
+	}
+
+	/**
+	 * Method packing the statuses of the tasks of a new search over a subset of
+	 * the tasks, so that the table can be reused after a plan is cancelled. The
+	 * tasks that are not in the new search are either delivered or taken by
+	 * another agent, in both cases they are done, and the cost to go of a
+	 * subproblem does not depend on the tasks already done, so every entry of the
+	 * table stays exact.
+	 *
+	 * @param newTaskIndex index of the tasks of the new search
+	 * @return the packed statuses, or -1 if the new search has a task unknown to
+	 *         the table or waiting to be picked up while carried at the root
+	 */
+	public int statusesOf(TaskIndex newTaskIndex) {
+		HashMap<Integer, Integer> newBitOfTask = new HashMap<>();
+		for (int t = 0; t < newTaskIndex.getNumTasks(); t++)
+			newBitOfTask.put(newTaskIndex.getTask(t).id, t);
+
+		int statuses = 0;
+		for (int t = 0; t < this.numTasks; t++) {
+			Integer newBit = newBitOfTask.remove(this.taskIndex.getTask(t).id);
+			int eventsLeft;
+			if (newBit == null)
+				eventsLeft = 0;
+			else if (newBit < newTaskIndex.getNumInitialPickups())
+				eventsLeft = 2;
+			else
+				eventsLeft = 1;
+			if (eventsLeft >= this.radix[t])
+				return -1;
+			statuses += this.place[t] * (this.radix[t] - 1 - eventsLeft);
+		}
+		return newBitOfTask.isEmpty() ? statuses : -1;
+	}
+
+	/**
+	 * Helper function multiplying two positive numbers, saturating at
+	 * Long.MAX_VALUE instead of overflowing.
+	 */
+	private static long saturatedProduct(long a, long b) {
+		return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+	}
+
+	/**
+	 * Method assigning a compact index to the start city and to the cities where
+	 * a task is picked up or delivered, and computing the travel costs between
+	 * them.
+	 *
+	 * @return the number of compact indices
+	 */
+	private int indexLocations(City start) {
+		int[] compactIndex = new int[this.topology.size()];
+		City[] cities = new City[2 * this.numTasks + 1];
+		int numLocations = 0;
+		this.pickupLocation = new int[this.numTasks];
+		this.deliveryLocation = new int[this.numTasks];
+
+		// The compact index of a city id is stored shifted by one, so that 0 means none
+		for (int t = -1; t < this.numTasks; t++) {
+			City[] eventCities = t < 0 ? new City[] { start }
+					: new City[] { this.taskIndex.getTask(t).pickupCity, this.taskIndex.getTask(t).deliveryCity };
+			for (int e = 0; e < eventCities.length; e++) {
+				City city = eventCities[e];
+				if (compactIndex[city.id] == 0) {
+					cities[numLocations] = city;
+					compactIndex[city.id] = ++numLocations;
+				}
+				if (t < 0)
+					this.startLocation = compactIndex[city.id] - 1;
+				else if (e == 0)
+					this.pickupLocation[t] = compactIndex[city.id] - 1;
+				else
+					this.deliveryLocation[t] = compactIndex[city.id] - 1;
+			}
+		}
+
+		this.locations = Arrays.copyOf(cities, numLocations);
+		this.travelCosts = new double[numLocations][numLocations];
+		for (int from = 0; from < numLocations; from++)
+			for (int to = 0; to < numLocations; to++)
+				this.travelCosts[from][to] = this.costPerKm * this.locations[from].distanceTo(this.locations[to]);
+		return numLocations;
+	}
+
+	/**
+	 * Method returning the compact index of the city of the next event of a task,
+	 * or -1 if the task is delivered or too heavy to be picked up.
+	 */
+	private int eventLocation(int t, int[] digits, int carriedWeight) {
+		int eventsLeft = this.radix[t] - 1 - digits[t];
+		if (eventsLeft == 0)
+			return -1;
+		if (eventsLeft == 1)
+			return this.deliveryLocation[t];
+		if (carriedWeight + this.taskIndex.getWeight(t) > this.capacity)
+			return -1;
+		return this.pickupLocation[t];
+	}
+
+	/**
+	 * Method computing the total weight of the tasks carried in the given
+	 * statuses.
+	 */
+	private int carriedWeight(int[] digits) {
+		int carriedWeight = 0;
+		for (int t = 0; t < this.numTasks; t++)
+			if (this.radix[t] - 1 - digits[t] == 1)
+				carriedWeight += this.taskIndex.getWeight(t);
+		return carriedWeight;
+	}
+
+	/**
+	 * Method updating the digits of the statuses of the tasks to those of the
+	 * previous packed statuses.
+	 */
+	private void decrement(int[] digits) {
+		for (int t = 0; t < this.numTasks; t++) {
+			if (digits[t] > 0) {
+				digits[t]--;
+				return;
+			}
+			digits[t] = this.radix[t] - 1;
+		}
+	}
+
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++)
+			if (array[i] == value)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Method unpacking the digits of the statuses of the tasks.
+	 */
+	private void decode(int statuses, int[] digits) {
+		for (int t = 0; t < this.numTasks; t++) {
+			digits[t] = statuses % this.radix[t];
+			statuses /= this.radix[t];
+		}
+	}
+
+	public int getNumStatesConsidered() {
+		return numStatesConsidered;
+	}
+
+	public void setCancelled(AtomicBoolean cancelled) {
+		this.cancelled = cancelled;
+	}
+
+}
@@ -0,0 +1,215 @@
+package template;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bucketed frontier of an A* search that spills to disk. The generated nodes
+ * are appended, as fixed-size records, to the bucket of their f(n), each bucket
+ * spanning a range of f(n) values of the given width. When the buffered records
+ * exceed the memory budget, the buckets with the highest f(n), i.e. the last to
+ * be expanded, are written to temporary files, memory-mapped when read back, so
+ * the heap used by the frontier stays bounded and the disk is only written and
+ * read sequentially. A file is deleted once its mapping is closed, or when the
+ * frontier is closed if its bucket is never polled.
+ *
+ * Appending a node does not check whether its state was already visited: the
+ * duplicates are detected in a batch by the search once the bucket is polled.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class ExternalFrontier implements AutoCloseable {
+
+	/**
+	 * Callback receiving the nodes of a polled bucket.
+	 */
+	public interface Visitor {
+		void visit(State state, double gCost, double hCost, int parent, byte opcode, int argument);
+	}
+
+	/**
+	 * Nodes of a range of f(n) values, partly in memory and partly spilled to
+	 * files.
+	 */
+	private class Bucket {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(16 * recordSize); // Records still in memory
+		private List<Path> files = new ArrayList<>(); // Files of the spilled records
+	}
+
+	private int numWords; // Number of words of each task mask
+	private int recordSize; // Number of bytes of each record
+	private double bucketWidth; // Range of the f(n) values of each bucket
+	private long maxBufferedRecords; // Maximum number of records kept in memory
+
+	private TreeMap<Long, Bucket> buckets; // Buckets by index, i.e. by f(n) / bucketWidth
+	private long size; // Number of records
+	private long bufferedRecords; // Number of records in memory
+	private long spilledRecords; // Number of records written to disk since the creation of the frontier
+
+	public ExternalFrontier(int numWords, double bucketWidth, long maxBufferedRecords) {
+		super();
+		this.numWords = numWords;
+		// Location, carried weight, parent, opcode and argument, then g(n), h(n) and
+		// both masks
+		this.recordSize = 5 * 4 + 4 + 2 * 8 + 2 * 8 * numWords;
+		this.bucketWidth = bucketWidth;
+		this.maxBufferedRecords = maxBufferedRecords;
+		this.buckets = new TreeMap<>();
+	}
+
+	/**
+	 * Method returning the index of the bucket of the given f(n).
+	 */
+	public long bucketOf(double fCost) {
+		return (long) Math.floor(fCost / this.bucketWidth);
+	}
+
+	/**
+	 * Method appending a node to the bucket of its f(n), spilling buckets to disk
+	 * if the memory budget is exceeded.
+	 */
+	public void add(State state, double gCost, double hCost, int parent, byte opcode, int argument) {
+		Bucket bucket = this.buckets.computeIfAbsent(bucketOf(gCost + hCost), index -> new Bucket());
+		if (bucket.buffer.remaining() < this.recordSize) {
+			ByteBuffer buffer = ByteBuffer.allocate(bucket.buffer.capacity() << 1);
+			bucket.buffer.flip();
+			buffer.put(bucket.buffer);
+			bucket.buffer = buffer;
+		}
+
+		ByteBuffer buffer = bucket.buffer;
+		buffer.putInt(state.getLocation()).putInt(state.getCarriedWeight()).putInt(parent).putInt(opcode)
+				.putInt(argument).putInt(0).putDouble(gCost).putDouble(hCost);
+		for (long word : state.getTasksToPickup())
+			buffer.putLong(word);
+		for (long word : state.getTasksToDeliver())
+			buffer.putLong(word);
+		this.size++;
+		this.bufferedRecords++;
+
+		if (this.bufferedRecords > this.maxBufferedRecords)
+			spill();
+	}
+
+	/**
+	 * Method returning the index of the bucket with the lowest f(n), or
+	 * Long.MAX_VALUE if the frontier is empty.
+	 */
+	public long lowestBucket() {
+		return this.buckets.isEmpty() ? Long.MAX_VALUE : this.buckets.firstKey();
+	}
+
+	/**
+	 * Method removing the bucket with the lowest f(n) and passing its nodes to the
+	 * visitor, first those read back from disk and then those still in memory.
+	 */
+	public void pollLowestBucket(Visitor visitor) {
+		Bucket bucket = this.buckets.pollFirstEntry().getValue();
+		for (Path file : bucket.files) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				readRecords(mapped, visitor);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		bucket.buffer.flip();
+		this.bufferedRecords -= bucket.buffer.remaining() / this.recordSize;
+		readRecords(bucket.buffer, visitor);
+	}
+
+	private void readRecords(ByteBuffer buffer, Visitor visitor) {
+		while (buffer.remaining() >= this.recordSize) {
+			int location = buffer.getInt(), carriedWeight = buffer.getInt(), parent = buffer.getInt();
+			byte opcode = (byte) buffer.getInt();
+			int argument = buffer.getInt();
+			buffer.getInt();
+			double gCost = buffer.getDouble(), hCost = buffer.getDouble();
+			long[] tasksToPickup = new long[this.numWords], tasksToDeliver = new long[this.numWords];
+			for (int w = 0; w < this.numWords; w++)
+				tasksToPickup[w] = buffer.getLong();
+			for (int w = 0; w < this.numWords; w++)
+				tasksToDeliver[w] = buffer.getLong();
+			this.size--;
+			visitor.visit(new State(location, tasksToPickup, tasksToDeliver, carriedWeight), gCost, hCost, parent,
+					opcode, argument);
+		}
+	}
+
+	/**
+	 * Helper function writing the buffers of the buckets with the highest f(n) to
+	 * disk until half of the memory budget is free, so that spills are batched.
+	 */
+	private void spill() {
+		for (Map.Entry<Long, Bucket> entry : this.buckets.descendingMap().entrySet()) {
+			if (this.bufferedRecords <= this.maxBufferedRecords / 2)
+				break;
+			Bucket bucket = entry.getValue();
+			if (bucket.buffer.position() == 0)
+				continue;
+
+			bucket.buffer.flip();
+			int numBytes = bucket.buffer.remaining();
+			try {
+				Path file = Files.createTempFile("frontier-" + entry.getKey() + "-", ".bin");
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					while (bucket.buffer.hasRemaining())
+						channel.write(bucket.buffer);
+				}
+				bucket.files.add(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.bufferedRecords -= numBytes / this.recordSize;
+			this.spilledRecords += numBytes / this.recordSize;
+			bucket.buffer = ByteBuffer.allocate(16 * this.recordSize);
+		}
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long getSpilledRecords() {
+		return spilledRecords;
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	/**
+	 * Method deleting the files of the buckets that were not polled.
+	 */
+	@Override
+	public void close() {
+		for (Bucket bucket : this.buckets.values()) {
+			for (Path file : bucket.files) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		this.buckets.clear();
+	}
+
+}
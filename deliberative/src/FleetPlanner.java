@@ -0,0 +1,372 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * Planner sharing the tasks among all the vehicles of an agent. The tasks are
+ * first partitioned by cheapest insertion into rough routes of the vehicles,
+ * then the optimal plan of each vehicle for its partition is computed by a
+ * single-vehicle search, all the vehicles concurrently on a thread pool.
+ *
+ * The search time grows exponentially with the number of tasks, so no vehicle
+ * gets more than its even share of the tasks plus a given slack. Otherwise the
+ * cheapest insertion tends to give all the tasks to a single vehicle, and the
+ * fleet would plan no faster than one vehicle. A larger slack trades planning
+ * time for cheaper plans.
+ *
+ * While the time budget lasts, the partition is then improved by local search:
+ * each round moves one task to another vehicle, choosing the move that lowers
+ * the total cost the most among the most promising ones, which are evaluated
+ * concurrently by solving both affected subproblems. The plans of the
+ * subproblems are memoized, so each subproblem is solved at most once. The
+ * searches still running when the plans are returned are cancelled through a
+ * shared flag that they check at every expansion.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class FleetPlanner {
+
+	/**
+	 * Single-vehicle search computing the optimal plan of a vehicle for a set of
+	 * tasks, called concurrently for different vehicles and sets, which stops by
+	 * throwing a CancellationException once the flag is set.
+	 */
+	public interface Solver {
+		Plan solve(Vehicle vehicle, TaskSet tasks, AtomicBoolean cancelled);
+	}
+
+	/**
+	 * Move of a task from the partition of a vehicle to that of another one.
+	 */
+	private static final class Relocation {
+		final Task task;
+		final int from;
+		final int to;
+		final double promise; // Estimated change (in km) of the route lengths, lower is better
+
+		Relocation(Task task, int from, int to, double promise) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+			this.promise = promise;
+		}
+	}
+
+	private List<Vehicle> vehicles; // Vehicles of the agent
+	private Solver solver; // Search computing the plan of a subproblem
+	private int numThreads; // Number of threads of the pool
+	private int partitionSlack; // Number of tasks a partition may hold beyond the even share
+	private int maxPartitionSize; // Maximum number of tasks assigned to a vehicle
+
+	private ExecutorService pool; // Pool running the searches, only during planning
+	private AtomicBoolean cancelled; // Set once planning is over, to stop the searches still running
+	private Map<List<Integer>, Future<Plan>> subproblems; // Plan of each vehicle index and task ids already submitted
+	private TaskSet[] partition; // Tasks assigned to each vehicle
+	private Plan[] plans; // Optimal plan of each vehicle for its partition
+	private int numRelocations; // Number of moves applied by the local search
+
+	public FleetPlanner(List<Vehicle> vehicles, Solver solver, int numThreads, int partitionSlack) {
+		super();
+		this.vehicles = vehicles;
+		this.solver = solver;
+		this.numThreads = Math.max(1, numThreads);
+		this.partitionSlack = partitionSlack;
+	}
+
+	/**
+	 * Method computing the partition of the tasks and the plan of each vehicle.
+	 *
+	 * @param tasks      set of the available tasks to be picked up
+	 * @param timeBudget time (in ms) after which the local search stops, the
+	 *                   initial plans are always computed
+	 * @return the plan of each vehicle, by index in the list of vehicles
+	 */
+	public Plan[] plan(TaskSet tasks, long timeBudget) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+		this.pool = Executors.newFixedThreadPool(this.numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "fleet-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.cancelled = new AtomicBoolean();
+		this.subproblems = new HashMap<>();
+		this.numRelocations = 0;
+		this.maxPartitionSize = (tasks.size() + this.vehicles.size() - 1) / this.vehicles.size()
+				+ this.partitionSlack;
+		try {
+			this.partition = assignTasks(tasks);
+			this.plans = new Plan[this.vehicles.size()];
+			List<Future<Plan>> initialPlans = new ArrayList<>();
+			for (int v = 0; v < this.vehicles.size(); v++)
+				initialPlans.add(submit(v, this.partition[v]));
+			for (int v = 0; v < this.vehicles.size(); v++)
+				this.plans[v] = await(initialPlans.get(v), Long.MAX_VALUE);
+
+			while (System.nanoTime() < deadline && relocateTask(deadline))
+				this.numRelocations++;
+		} finally {
+			// The searches still running past the deadline stop at their next expansion
+			this.cancelled.set(true);
+			this.pool.shutdownNow();
+		}
+		return this.plans;
+	}
+
+	/**
+	 * Helper function assigning each task, by decreasing distance between its
+	 * pickup and delivery cities, to the vehicle with a partition not full yet
+	 * whose rough route grows the least (weighted by its cost per km) when the
+	 * task is inserted in it. The
+	 * rough route of a vehicle starts from its current city and first goes through
+	 * the delivery cities of the tasks it carries.
+	 */
+	private TaskSet[] assignTasks(TaskSet tasks) {
+		int numVehicles = this.vehicles.size();
+		TaskSet[] partition = new TaskSet[numVehicles];
+		List<List<City>> routes = new ArrayList<>();
+		for (int v = 0; v < numVehicles; v++) {
+			Vehicle vehicle = this.vehicles.get(v);
+			partition[v] = TaskSet.noneOf(tasks);
+			List<City> route = new ArrayList<>();
+			route.add(vehicle.getCurrentCity());
+			for (Task carried : vehicle.getCurrentTasks())
+				route.add(carried.deliveryCity);
+			routes.add(route);
+		}
+
+		List<Task> sortedTasks = new ArrayList<>(tasks);
+		sortedTasks.sort(
+				Comparator.comparingDouble((Task t) -> t.pickupCity.distanceTo(t.deliveryCity)).reversed());
+		for (Task task : sortedTasks) {
+			int bestVehicle = -1, bestPickup = 0, bestDelivery = 0;
+			double bestCost = Double.POSITIVE_INFINITY;
+			for (int v = 0; v < numVehicles; v++) {
+				Vehicle vehicle = this.vehicles.get(v);
+				if (vehicle.capacity() < task.weight || partition[v].size() >= this.maxPartitionSize)
+					continue;
+				List<City> route = routes.get(v);
+				for (int i = 0; i < route.size(); i++) {
+					for (int j = i; j < route.size(); j++) {
+						double cost = vehicle.costPerKm() * insertionDistance(route, task, i, j);
+						if (cost < bestCost) {
+							bestCost = cost;
+							bestVehicle = v;
+							bestPickup = i;
+							bestDelivery = j;
+						}
+					}
+				}
+			}
+
+			// A task that no vehicle with room left can carry goes to the one with the
+			// largest capacity
+			if (bestVehicle < 0) {
+				bestVehicle = 0;
+				for (int v = 1; v < numVehicles; v++)
+					if (this.vehicles.get(v).capacity() > this.vehicles.get(bestVehicle).capacity())
+						bestVehicle = v;
+				bestPickup = bestDelivery = routes.get(bestVehicle).size() - 1;
+			}
+			partition[bestVehicle].add(task);
+			List<City> route = routes.get(bestVehicle);
+			route.add(bestDelivery + 1, task.deliveryCity);
+			route.add(bestPickup + 1, task.pickupCity);
+		}
+		return partition;
+	}
+
+	/**
+	 * Helper function computing how much longer (in km) a route gets when the
+	 * pickup city of the task is inserted after its i-th city and the delivery
+	 * city after its j-th city, with i <= j.
+	 */
+	private static double insertionDistance(List<City> route, Task task, int i, int j) {
+		City pickup = task.pickupCity, delivery = task.deliveryCity;
+		City afterPickup = i + 1 < route.size() ? route.get(i + 1) : null;
+		if (i == j)
+			return route.get(i).distanceTo(pickup) + pickup.distanceTo(delivery)
+					+ (afterPickup == null ? 0 : delivery.distanceTo(afterPickup) - route.get(i).distanceTo(afterPickup));
+
+		City afterDelivery = j + 1 < route.size() ? route.get(j + 1) : null;
+		return route.get(i).distanceTo(pickup) + pickup.distanceTo(afterPickup)
+				- route.get(i).distanceTo(afterPickup) + route.get(j).distanceTo(delivery)
+				+ (afterDelivery == null ? 0
+						: delivery.distanceTo(afterDelivery) - route.get(j).distanceTo(afterDelivery));
+	}
+
+	/**
+	 * Helper function running one round of the local search. The moves are ranked
+	 * by how close the cities of the task are to those of the target partition
+	 * compared to the source one, and evaluated in batches of twice the number
+	 * of threads until a batch contains a move lowering the total cost, the best
+	 * of which is applied.
+	 *
+	 * @return true if a move was applied, false if none lowers the total cost or
+	 *         the deadline was reached
+	 */
+	private boolean relocateTask(long deadline) {
+		List<Relocation> relocations = new ArrayList<>();
+		for (int from = 0; from < this.vehicles.size(); from++) {
+			for (Task task : this.partition[from]) {
+				for (int to = 0; to < this.vehicles.size(); to++) {
+					if (to != from && this.vehicles.get(to).capacity() >= task.weight
+							&& this.partition[to].size() < this.maxPartitionSize)
+						relocations.add(new Relocation(task, from, to,
+								proximity(task, to, null) - proximity(task, from, task)));
+				}
+			}
+		}
+		relocations.sort(Comparator.comparingDouble(relocation -> relocation.promise));
+
+		int batchSize = 2 * this.numThreads;
+		for (int first = 0; first < relocations.size(); first += batchSize) {
+			List<Relocation> batch = relocations.subList(first, Math.min(first + batchSize, relocations.size()));
+			List<Future<Plan>> fromPlans = new ArrayList<>(), toPlans = new ArrayList<>();
+			for (Relocation relocation : batch) {
+				fromPlans.add(submit(relocation.from, without(this.partition[relocation.from], relocation.task)));
+				toPlans.add(submit(relocation.to, with(this.partition[relocation.to], relocation.task)));
+			}
+
+			Relocation bestRelocation = null;
+			Plan bestFromPlan = null, bestToPlan = null;
+			double bestGain = 1e-6;
+			for (int r = 0; r < batch.size(); r++) {
+				Relocation relocation = batch.get(r);
+				Plan fromPlan = await(fromPlans.get(r), deadline), toPlan = await(toPlans.get(r), deadline);
+				if (fromPlan == null || toPlan == null)
+					return false;
+				double gain = cost(relocation.from, this.plans[relocation.from])
+						+ cost(relocation.to, this.plans[relocation.to]) - cost(relocation.from, fromPlan)
+						- cost(relocation.to, toPlan);
+				if (gain > bestGain) {
+					bestGain = gain;
+					bestRelocation = relocation;
+					bestFromPlan = fromPlan;
+					bestToPlan = toPlan;
+				}
+			}
+
+			if (bestRelocation != null) {
+				this.partition[bestRelocation.from] = without(this.partition[bestRelocation.from], bestRelocation.task);
+				this.partition[bestRelocation.to] = with(this.partition[bestRelocation.to], bestRelocation.task);
+				this.plans[bestRelocation.from] = bestFromPlan;
+				this.plans[bestRelocation.to] = bestToPlan;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Helper function computing the distance (in km) from the pickup and delivery
+	 * cities of the task to the closest cities of the partition of the vehicle,
+	 * including its current city and ignoring the excluded task.
+	 */
+	private double proximity(Task task, int v, Task excluded) {
+		City current = this.vehicles.get(v).getCurrentCity();
+		double pickupDistance = task.pickupCity.distanceTo(current);
+		double deliveryDistance = task.deliveryCity.distanceTo(current);
+		for (Task other : this.partition[v]) {
+			if (other == excluded)
+				continue;
+			pickupDistance = Math.min(pickupDistance,
+					Math.min(task.pickupCity.distanceTo(other.pickupCity), task.pickupCity.distanceTo(other.deliveryCity)));
+			deliveryDistance = Math.min(deliveryDistance, Math.min(task.deliveryCity.distanceTo(other.pickupCity),
+					task.deliveryCity.distanceTo(other.deliveryCity)));
+		}
+		return pickupDistance + deliveryDistance;
+	}
+
+	/**
+	 * Helper function submitting the search of a subproblem to the pool, unless it
+	 * was already submitted.
+	 */
+	private Future<Plan> submit(int v, TaskSet tasks) {
+		List<Integer> key = new ArrayList<>();
+		key.add(v);
+		for (Task task : tasks)
+			key.add(task.id);
+		Vehicle vehicle = this.vehicles.get(v);
+		AtomicBoolean cancelled = this.cancelled;
+		return this.subproblems.computeIfAbsent(key,
+				k -> this.pool.submit(() -> this.solver.solve(vehicle, tasks, cancelled)));
+	}
+
+	/**
+	 * Helper function waiting for the plan of a subproblem until the deadline.
+	 *
+	 * @return the plan, or null if the deadline was reached first
+	 */
+	private static Plan await(Future<Plan> plan, long deadline) {
+		try {
+			if (deadline == Long.MAX_VALUE)
+				return plan.get();
+			return plan.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the vehicle searches.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search of a vehicle failed.", e.getCause());
+		}
+	}
+
+	private double cost(int v, Plan plan) {
+		return plan.totalDistance() * this.vehicles.get(v).costPerKm();
+	}
+
+	private static TaskSet with(TaskSet tasks, Task task) {
+		TaskSet result = tasks.clone();
+		result.add(task);
+		return result;
+	}
+
+	private static TaskSet without(TaskSet tasks, Task task) {
+		TaskSet result = tasks.clone();
+		result.remove(task);
+		return result;
+	}
+
+	/**
+	 * Method returning the tasks assigned to each vehicle by the last call to
+	 * plan, by index in the list of vehicles.
+	 */
+	public TaskSet[] getPartition() {
+		return partition;
+	}
+
+	public int getNumRelocations() {
+		return numRelocations;
+	}
+
+	/**
+	 * Method returning the total cost of the plans computed by the last call to
+	 * plan.
+	 */
+	public double getTotalCost() {
+		double totalCost = 0;
+		for (int v = 0; v < this.plans.length; v++)
+			totalCost += cost(v, this.plans[v]);
+		return totalCost;
+	}
+
+}
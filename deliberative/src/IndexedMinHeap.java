@@ -0,0 +1,153 @@
+package template;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int items (node indices) ordered by a double key, which
+ * keeps track of the position of each item in the heap. This allows the key of
+ * an item already in the heap to be decreased in O(log n), instead of leaving a
+ * stale entry in the heap as java.util.PriorityQueue would.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class IndexedMinHeap {
+
+	public static final int BYTES_PER_ITEM = 16; // Bytes of the position, key and heap entry of an item
+
+	private int[] heap; // Items, stored as an implicit binary tree
+	private int size; // Number of items in the heap
+	private int[] positions; // Position in the heap of each item, -1 if the item is not in the heap
+	private double[] keys; // Current key of each item
+
+	public IndexedMinHeap(int initialCapacity) {
+		super();
+		int capacity = Math.max(16, initialCapacity);
+		this.heap = new int[capacity];
+		this.size = 0;
+		this.positions = new int[capacity];
+		this.keys = new double[capacity];
+		Arrays.fill(this.positions, -1);
+	}
+
+	/**
+	 * Method inserting the item with the given key, or decreasing its key if it is
+	 * already in the heap. A key larger than the current one is ignored.
+	 */
+	public void push(int item, double key) {
+		ensureItemCapacity(item);
+		int position = this.positions[item];
+		if (position >= 0) {
+			if (key < this.keys[item]) {
+				this.keys[item] = key;
+				siftUp(position);
+			}
+			return;
+		}
+
+		if (this.size == this.heap.length)
+			this.heap = Arrays.copyOf(this.heap, this.size << 1);
+		this.keys[item] = key;
+		this.heap[this.size] = item;
+		this.positions[item] = this.size;
+		siftUp(this.size++);
+	}
+
+	/**
+	 * Method removing and returning the item with the smallest key.
+	 */
+	public int poll() {
+		int item = this.heap[0];
+		this.positions[item] = -1;
+		if (--this.size > 0) {
+			this.heap[0] = this.heap[this.size];
+			this.positions[this.heap[0]] = 0;
+			siftDown(0);
+		}
+		return item;
+	}
+
+	/**
+	 * Method returning the smallest key in the heap.
+	 */
+	public double peekKey() {
+		return this.keys[this.heap[0]];
+	}
+
+	/**
+	 * Method returning the items in the heap, in no particular order.
+	 */
+	public int[] items() {
+		return Arrays.copyOf(this.heap, this.size);
+	}
+
+	/**
+	 * Method removing all the items from the heap.
+	 */
+	public void clear() {
+		for (int i = 0; i < this.size; i++)
+			this.positions[this.heap[i]] = -1;
+		this.size = 0;
+	}
+
+	public boolean contains(int item) {
+		return item < this.positions.length && this.positions[item] >= 0;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void siftUp(int position) {
+		int item = this.heap[position];
+		double key = this.keys[item];
+		while (position > 0) {
+			int parentPosition = (position - 1) >>> 1;
+			int parent = this.heap[parentPosition];
+			if (this.keys[parent] <= key)
+				break;
+			this.heap[position] = parent;
+			this.positions[parent] = position;
+			position = parentPosition;
+		}
+		this.heap[position] = item;
+		this.positions[item] = position;
+	}
+
+	private void siftDown(int position) {
+		int item = this.heap[position];
+		double key = this.keys[item];
+		int half = this.size >>> 1;
+		while (position < half) {
+			int childPosition = 2 * position + 1;
+			int child = this.heap[childPosition];
+			int rightPosition = childPosition + 1;
+			if (rightPosition < this.size && this.keys[this.heap[rightPosition]] < this.keys[child]) {
+				childPosition = rightPosition;
+				child = this.heap[childPosition];
+			}
+			if (key <= this.keys[child])
+				break;
+			this.heap[position] = child;
+			this.positions[child] = position;
+			position = childPosition;
+		}
+		this.heap[position] = item;
+		this.positions[item] = position;
+	}
+
+	private void ensureItemCapacity(int item) {
+		if (item < this.positions.length)
+			return;
+		int capacity = Math.max(item + 1, this.positions.length << 1);
+		int oldCapacity = this.positions.length;
+		this.positions = Arrays.copyOf(this.positions, capacity);
+		Arrays.fill(this.positions, oldCapacity, capacity, -1);
+		this.keys = Arrays.copyOf(this.keys, capacity);
+	}
+
+}
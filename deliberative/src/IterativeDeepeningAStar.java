@@ -0,0 +1,196 @@
+package template;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-bounded IDA* search. Each iteration is a depth-first search that
+ * prunes the nodes whose f(n) exceeds a bound, so only the current path is kept
+ * in memory besides a transposition table of bounded size, which prunes the
+ * states already reached with a lower g(n) during the same iteration.
+ *
+ * The costs are real numbers, so raising the bound only to the smallest pruned
+ * f(n) would need about one iteration per distinct cost. The bound is instead
+ * raised by a step that doubles whenever an iteration does not at least double
+ * the number of expansions. Since the bound can then overshoot the optimal
+ * cost, an iteration does not stop at the first goal: it keeps searching below
+ * the cost of the best goal found, and the last iteration returns the optimal
+ * one.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class IterativeDeepeningAStar {
+
+	private SuccessorGenerator successors; // Generator of the child nodes
+	private int maxTableSize; // Maximum number of states in the transposition table
+
+	private StateTable transpositions; // States reached during the search and their entry in the arrays below
+	private double[] entryCosts; // Lowest g(n) with which each state was reached in its last iteration
+	private int[] entryIterations; // Last iteration in which each state was reached
+
+	private int iteration; // Number of the current iteration
+	private double bound; // Maximum f(n) of the nodes expanded in the current iteration
+	private double nextBound; // Smallest f(n) pruned by the bound in the current iteration
+	private AStarNode bestGoalNode; // Cheapest goal node found in the current iteration
+	private Instant start; // Start time of the search
+
+	private long numExpansions; // Number of node expansions over all iterations
+	private int maxDepth; // Maximum depth of the search path
+	private SearchStatistics statistics; // Metrics of the search
+
+	public IterativeDeepeningAStar(SuccessorGenerator successors, int maxTableSize) {
+		super();
+		this.successors = successors;
+		this.maxTableSize = Math.max(0, maxTableSize);
+	}
+
+	/**
+	 * Method running the search from the given root node.
+	 *
+	 * @param root       node of the initial state
+	 * @param statistics metrics of the search, updated while it runs
+	 * @return the optimal goal node, or null if no goal is reachable
+	 */
+	public AStarNode search(AStarNode root, SearchStatistics statistics) {
+		this.start = Instant.now();
+		this.statistics = statistics;
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		int expectedSize = Math.min(this.maxTableSize,
+				StateTable.estimateNumStates(this.successors.getTopology().size(), taskIndex.getNumTasks()));
+		this.transpositions = new StateTable(taskIndex.getNumWords(), expectedSize);
+		this.entryCosts = new double[16];
+		this.entryIterations = new int[16];
+		this.iteration = 0;
+		this.numExpansions = 0;
+		this.maxDepth = 0;
+
+		this.bound = root.getfCost();
+		double step = 0;
+		long previousExpansions = 0;
+		while (true) {
+			this.iteration++;
+			this.nextBound = Double.POSITIVE_INFINITY;
+			this.bestGoalNode = null;
+			long expansionsBefore = this.numExpansions;
+
+			depthFirstSearch(root, 0);
+
+			// All the nodes cheaper than the goal have been expanded, so it is optimal
+			if (this.bestGoalNode != null || this.nextBound == Double.POSITIVE_INFINITY) {
+				statistics.setBytesPerNode(StateTable.bytesPerEntry(taskIndex.getNumWords()) + 12);
+				return this.bestGoalNode;
+			}
+
+			long iterationExpansions = this.numExpansions - expansionsBefore;
+			if (step == 0 || iterationExpansions < 2 * previousExpansions)
+				step = Math.max(2 * step, this.nextBound - this.bound);
+			previousExpansions = iterationExpansions;
+			this.bound = Math.max(this.nextBound, this.bound + step);
+		}
+	}
+
+	private void depthFirstSearch(AStarNode node, int depth) {
+		double fCost = node.getfCost();
+		if (fCost > this.bound) {
+			if (fCost < this.nextBound)
+				this.nextBound = fCost;
+			return;
+		}
+		if (this.bestGoalNode != null && fCost >= this.bestGoalNode.getgCost())
+			return;
+
+		// A goal node within the bound becomes the new upper bound of the iteration
+		if (node.getState().isGoalState()) {
+			this.statistics.goalFound();
+			this.bestGoalNode = node;
+			return;
+		}
+		if (!visit(node))
+			return;
+
+		// Check whether we have timed out on the 1 minute available for execution
+		this.successors.checkTimeout(this.start);
+
+		this.numExpansions++;
+		if (depth > this.maxDepth)
+			this.maxDepth = depth;
+		this.statistics.sizes(depth + 1, this.transpositions.size());
+
+		// Explore the most promising children first, to find a cheap goal early
+		List<AStarNode> children = this.successors.expand(node, this.statistics);
+		children.sort(null);
+		for (AStarNode childNode : children)
+			depthFirstSearch(childNode, depth + 1);
+	}
+
+	/**
+	 * Method recording that the state of the node is reached with its g(n) in the
+	 * current iteration.
+	 *
+	 * @return false if the state was already reached with a lower or equal g(n) in
+	 *         the current iteration, in which case the node can be pruned
+	 */
+	private boolean visit(AStarNode node) {
+		State state = node.getState();
+		int entry;
+		if (this.transpositions.size() < this.maxTableSize) {
+			entry = this.transpositions.putIfAbsent(state, this.transpositions.size());
+			if (entry < 0) {
+				entry = this.transpositions.size() - 1;
+				ensureEntryCapacity(entry);
+				this.entryCosts[entry] = node.getgCost();
+				this.entryIterations[entry] = this.iteration;
+				return true;
+			}
+		} else {
+			// The table is full, only the states already in it are tracked
+			entry = this.transpositions.get(state);
+			if (entry < 0)
+				return true;
+		}
+
+		if (this.entryIterations[entry] == this.iteration) {
+			if (this.entryCosts[entry] <= node.getgCost())
+				return false;
+			this.statistics.nodeReopened();
+		}
+		this.entryCosts[entry] = node.getgCost();
+		this.entryIterations[entry] = this.iteration;
+		return true;
+	}
+
+	private void ensureEntryCapacity(int entry) {
+		if (entry < this.entryCosts.length)
+			return;
+		int capacity = Math.max(entry + 1, this.entryCosts.length << 1);
+		this.entryCosts = Arrays.copyOf(this.entryCosts, capacity);
+		this.entryIterations = Arrays.copyOf(this.entryIterations, capacity);
+	}
+
+	public int getNumStatesConsidered() {
+		return transpositions.size();
+	}
+
+	public int getNumIterations() {
+		return iteration;
+	}
+
+	public long getNumExpansions() {
+		return numExpansions;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Method returning the number of bytes of the primitive arrays backing the
+	 * transposition table.
+	 */
+	public long memoryFootprint() {
+		return transpositions.memoryFootprint() + 8L * entryCosts.length + 4L * entryIterations.length;
+	}
+
+}
@@ -0,0 +1,146 @@
+package template;
+
+import java.util.Arrays;
+
+import logist.plan.Plan;
+import logist.topology.Topology.City;
+
+/**
+ * Struct-of-arrays storage of the nodes of a search. A node is an int index
+ * into parallel primitive arrays holding its parent, its g(n) and h(n), and
+ * the action that created it as an opcode plus an argument, so no object is
+ * allocated per node.
+ *
+ * The state of a node is not stored: the searches using the arena add a node
+ * exactly when they add its state to their StateTable, so the index of a node
+ * is also the entry id of its state in the table. The Action objects are only
+ * created when the plan is inferred.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class NodeArena {
+
+	public static final byte ROOT = 0; // The root node, with no action
+	public static final byte MOVE = 1; // MOVE to the city of the node, along the shortest path
+	public static final byte PICKUP = 2; // PICKUP of the task given as argument
+	public static final byte DELIVER = 3; // DELIVER of all the tasks carried by the parent but not by the node
+
+	public static final int BYTES_PER_NODE = 25; // Bytes of the parent, costs, opcode and argument of a node
+
+	private int size; // Number of nodes
+	private int[] parents; // Index of the parent of each node, -1 for the root
+	private double[] gCosts; // g(n) of each node
+	private double[] hCosts; // h(n) of each node
+	private byte[] opcodes; // Opcode of the action that created each node
+	private int[] arguments; // Argument of the action that created each node
+
+	public NodeArena(int initialCapacity) {
+		super();
+		int capacity = Math.max(16, initialCapacity);
+		this.parents = new int[capacity];
+		this.gCosts = new double[capacity];
+		this.hCosts = new double[capacity];
+		this.opcodes = new byte[capacity];
+		this.arguments = new int[capacity];
+	}
+
+	/**
+	 * Method adding a node to the arena.
+	 *
+	 * @return the index of the node
+	 */
+	public int add(int parent, double gCost, double hCost, byte opcode, int argument) {
+		if (this.size == this.parents.length)
+			grow(this.size << 1);
+		int node = this.size++;
+		this.hCosts[node] = hCost;
+		update(node, parent, gCost, opcode, argument);
+		return node;
+	}
+
+	/**
+	 * Method replacing the path to a node, when its state is reached with a lower
+	 * g(n).
+	 */
+	public void update(int node, int parent, double gCost, byte opcode, int argument) {
+		this.parents[node] = parent;
+		this.gCosts[node] = gCost;
+		this.opcodes[node] = opcode;
+		this.arguments[node] = argument;
+	}
+
+	/**
+	 * Helper function to build the plan from the sequence of actions that lead
+	 * from the root to the node. A MOVE is expanded into the chain of moves along
+	 * the shortest path between the cities of the parent and of the node, and a
+	 * DELIVER into the deliveries of the tasks the parent carries and the node
+	 * does not, in index order.
+	 *
+	 * @param node      index of the node
+	 * @param plan      plan to which action have to be added
+	 * @param states    table of the states of the search, by node index
+	 * @param taskIndex index of the tasks of the search
+	 */
+	public void inferPlan(int node, Plan plan, StateTable states, TaskIndex taskIndex) {
+		int depth = 0;
+		for (int n = node; n >= 0; n = this.parents[n])
+			depth++;
+		int[] path = new int[depth];
+		for (int n = node, i = depth - 1; n >= 0; n = this.parents[n], i--)
+			path[i] = n;
+
+		long[] parentTasks = new long[taskIndex.getNumWords()], tasks = new long[taskIndex.getNumWords()];
+		for (int i = 1; i < depth; i++) {
+			int parent = path[i - 1], current = path[i];
+			switch (this.opcodes[current]) {
+			case MOVE:
+				City from = taskIndex.getCity(states.getLocation(parent));
+				for (City city : from.pathTo(taskIndex.getCity(this.arguments[current])))
+					plan.appendMove(city);
+				break;
+			case PICKUP:
+				plan.appendPickup(taskIndex.getTask(this.arguments[current]));
+				break;
+			case DELIVER:
+				states.copyTasksToDeliver(parent, parentTasks);
+				states.copyTasksToDeliver(current, tasks);
+				for (int t = TaskIndex.nextSetBit(parentTasks, 0); t >= 0; t = TaskIndex.nextSetBit(parentTasks, t + 1))
+					if ((tasks[t >>> 6] & (1L << t)) == 0)
+						plan.appendDelivery(taskIndex.getTask(t));
+				break;
+			default:
+				throw new AssertionError("Should not happen.");
+			}
+		}
+	}
+
+	private void grow(int capacity) {
+		this.parents = Arrays.copyOf(this.parents, capacity);
+		this.gCosts = Arrays.copyOf(this.gCosts, capacity);
+		this.hCosts = Arrays.copyOf(this.hCosts, capacity);
+		this.opcodes = Arrays.copyOf(this.opcodes, capacity);
+		this.arguments = Arrays.copyOf(this.arguments, capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public double getgCost(int node) {
+		return gCosts[node];
+	}
+
+	public double gethCost(int node) {
+		return hCosts[node];
+	}
+
+	public double getfCost(int node) {
+		return gCosts[node] + hCosts[node];
+	}
+
+}
@@ -0,0 +1,298 @@
+package template;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash-distributed parallel A* (HDA*). The state space is partitioned among the
+ * worker threads by the hash of the states: each worker owns the closed set,
+ * the nodes and the open list of its partition, so none of them is shared.
+ * The children generated by a worker for the state of another worker are
+ * collected in a batch per destination, which is sent to the inbox of its
+ * owner, a lock-free queue with many producers and a single consumer, once it
+ * is full, every few expansions, and before the worker becomes idle. An idle
+ * worker is parked until a batch is sent to it.
+ *
+ * The cost of the cheapest goal found so far bounds the search: nodes with f(n)
+ * at least as large are pruned. The search terminates when no worker has a
+ * node below the bound and no batch is in flight, which is detected with a
+ * single counter of the busy workers plus the batches in flight. Every batch is
+ * counted before it is sent and a worker becomes busy before it consumes one,
+ * so the counter can only reach 0 once the search is over. With an admissible
+ * heuristic the goal found is then optimal.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class ParallelAStar {
+
+	static final int BATCH_SIZE = 256; // Number of nodes after which a batch is sent to its owner
+	static final int FLUSH_INTERVAL = 64; // Number of expansions after which all the batches are sent
+	static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Longest park of an idle worker
+
+	private SuccessorGenerator successors; // Shared generator of the child nodes
+	private Worker[] workers; // Workers, by index of the partition they own
+	private AtomicLong activity; // Number of busy workers + number of batches in flight
+	private Instant start; // Start time of the search
+
+	private volatile CancellationException failure; // Exception that stopped a worker, null if none
+	private volatile double bestGoalCost; // Cost of the cheapest goal found so far
+	private AStarNode bestGoalNode; // Cheapest goal node found so far, guarded by this
+
+	public ParallelAStar(SuccessorGenerator successors, int numThreads) {
+		super();
+		this.successors = successors;
+		this.workers = new Worker[Math.max(1, numThreads)];
+	}
+
+	/**
+	 * Method running the search from the given root node.
+	 *
+	 * @param root       node of the initial state
+	 * @param statistics metrics of the search, merged from those of the workers
+	 * @return the optimal goal node, or null if no goal is reachable
+	 */
+	public AStarNode search(AStarNode root, SearchStatistics statistics) {
+		this.start = Instant.now();
+		this.bestGoalCost = Double.POSITIVE_INFINITY;
+		this.bestGoalNode = null;
+		this.failure = null;
+
+		TaskIndex taskIndex = this.successors.getTaskIndex();
+		int expectedSize = StateTable.estimateNumStates(this.successors.getTopology().size(),
+				taskIndex.getNumTasks()) / this.workers.length;
+		for (int i = 0; i < this.workers.length; i++)
+			this.workers[i] = new Worker(taskIndex.getNumWords(), expectedSize,
+					new SearchStatistics(statistics.getAlgorithm(), statistics.getNumTasks()));
+
+		// All the workers start busy, the root is given to its owner before they start
+		this.activity = new AtomicLong(this.workers.length);
+		this.workers[owner(root.getState())].add(root);
+
+		// The threads are all created before any starts, so that each worker can wake
+		// up the others
+		Thread[] threads = new Thread[this.workers.length];
+		for (int i = 0; i < this.workers.length; i++) {
+			threads[i] = new Thread(this.workers[i], "hda-worker-" + i);
+			threads[i].setDaemon(true);
+			this.workers[i].thread = threads[i];
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the search workers.", e);
+			}
+		}
+		this.successors.checkCancelled();
+		if (this.failure != null)
+			throw this.failure;
+
+		for (Worker worker : this.workers)
+			statistics.merge(worker.statistics);
+		statistics.setBytesPerNode(SearchStatistics.estimateNodeBytes(taskIndex.getNumWords())
+				+ StateTable.bytesPerEntry(taskIndex.getNumWords()) + IndexedMinHeap.BYTES_PER_ITEM);
+
+		synchronized (this) {
+			return this.bestGoalNode;
+		}
+	}
+
+	/**
+	 * Method returning the number of states visited by the last search, over all
+	 * the partitions.
+	 */
+	public int getNumStatesConsidered() {
+		int numStates = 0;
+		for (Worker worker : this.workers)
+			numStates += worker.visitedStates.size();
+		return numStates;
+	}
+
+	/**
+	 * Method returning the number of nodes expanded by each worker during the last
+	 * search, which shows how well the hash balances the load.
+	 */
+	public long[] getNumExpansions() {
+		long[] numExpansions = new long[this.workers.length];
+		for (int i = 0; i < this.workers.length; i++)
+			numExpansions[i] = this.workers[i].numExpansions;
+		return numExpansions;
+	}
+
+	/**
+	 * Method returning the index of the worker owning the state. The high bits of
+	 * the hash are used since the closed sets already use the low ones, so every
+	 * partition still spreads over all the slots of its table.
+	 */
+	private int owner(State state) {
+		return (int) (((state.hashCode() >>> 16) * (long) this.workers.length) >>> 16);
+	}
+
+	private synchronized void offerGoal(AStarNode goalNode) {
+		if (goalNode.getgCost() < this.bestGoalCost) {
+			this.bestGoalNode = goalNode;
+			this.bestGoalCost = goalNode.getgCost();
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		private ConcurrentLinkedQueue<ArrayList<AStarNode>> inbox; // Batches of nodes sent by the other workers
+		private List<ArrayList<AStarNode>> outboxes; // Batches of nodes not sent yet, by index of their owner
+		private Thread thread; // Thread running the worker, unparked when a batch is sent to it
+		private volatile boolean idle; // Whether the worker waits for a batch
+		private ArrayList<AStarNode> nodes; // All the nodes of the partition, by index
+		private StateTable visitedStates; // Visited states of the partition and the index of their node
+		private IndexedMinHeap queue; // Indices of the nodes of the partition to be expanded, ordered by f(n)
+		private long numExpansions; // Number of nodes expanded by the worker
+		private SearchStatistics statistics; // Metrics of the partition
+
+		Worker(int numWords, int expectedSize, SearchStatistics statistics) {
+			this.statistics = statistics;
+			this.inbox = new ConcurrentLinkedQueue<>();
+			this.outboxes = new ArrayList<>(workers.length);
+			for (int i = 0; i < workers.length; i++)
+				this.outboxes.add(new ArrayList<>(BATCH_SIZE));
+			this.nodes = new ArrayList<>();
+			this.visitedStates = new StateTable(numWords, expectedSize);
+			this.queue = new IndexedMinHeap(1024);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+
+				// A cancelled search, or a worker that timed out, stops all the workers
+				if (successors.isCancelled() || failure != null)
+					return;
+
+				// Add the nodes received from the other workers to the partition
+				ArrayList<AStarNode> received;
+				while ((received = this.inbox.poll()) != null) {
+					for (AStarNode node : received)
+						add(node);
+					activity.decrementAndGet();
+				}
+
+				// Expand the best node of the partition unless it cannot improve on the best goal
+				if (!this.queue.isEmpty() && this.queue.peekKey() < bestGoalCost) {
+					this.statistics.sizes(this.queue.size(), this.visitedStates.size());
+					try {
+						expand(this.nodes.get(this.queue.poll()));
+					} catch (CancellationException e) {
+						failure = e;
+						return;
+					}
+					if (this.numExpansions % FLUSH_INTERVAL == 0)
+						flushAll();
+					continue;
+				}
+
+				// Nothing to do until another worker sends a batch: send the pending ones,
+				// become idle, and stop once all the workers are idle with no batch in flight
+				flushAll();
+				this.idle = true;
+				if (activity.decrementAndGet() == 0) {
+					for (Worker worker : workers)
+						LockSupport.unpark(worker.thread);
+					return;
+				}
+				while (this.inbox.isEmpty()) {
+					if (activity.get() == 0 || successors.isCancelled() || failure != null)
+						return;
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				this.idle = false;
+				activity.incrementAndGet();
+			}
+		}
+
+		private void expand(AStarNode currentNode) {
+
+			// Check whether we have timed out on the 1 minute available for execution
+			successors.checkTimeout(start);
+
+			// A goal node is a candidate solution, and is not expanded further
+			if (currentNode.getState().isGoalState()) {
+				this.statistics.goalFound();
+				offerGoal(currentNode);
+				return;
+			}
+			this.numExpansions++;
+
+			successors.expand(currentNode, this.statistics, childNode -> {
+				if (childNode.getfCost() >= bestGoalCost)
+					return;
+				int childOwner = owner(childNode.getState());
+				if (workers[childOwner] == this)
+					add(childNode);
+				else {
+					ArrayList<AStarNode> outbox = this.outboxes.get(childOwner);
+					outbox.add(childNode);
+					if (outbox.size() >= BATCH_SIZE)
+						flush(childOwner);
+				}
+			});
+		}
+
+		/**
+		 * Method sending the pending batch of the given worker to its inbox. The batch
+		 * is counted as in flight before it becomes visible to its owner, which is
+		 * woken up if it is idle.
+		 */
+		private void flush(int owner) {
+			ArrayList<AStarNode> outbox = this.outboxes.get(owner);
+			if (outbox.isEmpty())
+				return;
+			this.outboxes.set(owner, new ArrayList<>(BATCH_SIZE));
+			Worker ownerWorker = workers[owner];
+			activity.incrementAndGet();
+			ownerWorker.inbox.offer(outbox);
+			if (ownerWorker.idle)
+				LockSupport.unpark(ownerWorker.thread);
+		}
+
+		private void flushAll() {
+			for (int i = 0; i < this.outboxes.size(); i++)
+				flush(i);
+		}
+
+		/**
+		 * Method adding a node to the partition. If its state was already visited only
+		 * the cheaper path is kept: the existing node takes the parent and the cost of
+		 * the new one and is moved up in the queue, or reopened if it had already been
+		 * expanded.
+		 */
+		private void add(AStarNode childNode) {
+			if (childNode.getfCost() >= bestGoalCost)
+				return;
+			int visitedIndex = this.visitedStates.putIfAbsent(childNode.getState(), this.nodes.size());
+			if (visitedIndex < 0) {
+				this.queue.push(this.nodes.size(), childNode.getfCost());
+				this.nodes.add(childNode);
+			} else {
+				AStarNode n = this.nodes.get(visitedIndex);
+				if (childNode.getfCost() < n.getfCost()) {
+					n.setParent(childNode.getParent());
+					n.setgCost(childNode.getgCost());
+					n.sethCost(childNode.gethCost());
+					n.setActionPerformed(childNode.getActionPerformed());
+					if (!this.queue.contains(visitedIndex))
+						this.statistics.nodeReopened();
+					this.queue.push(visitedIndex, n.getfCost());
+				}
+			}
+		}
+	}
+
+}
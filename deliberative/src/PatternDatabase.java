@@ -0,0 +1,288 @@
+package template;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import logist.config.Parsers;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Pattern database of the heuristic with id 4. A pattern is a subset of at
+ * most a given number of cities of the topology, and the database stores, for
+ * each pattern, each city of the topology and each subset of the pattern, the
+ * exact length (in km) of the shortest route starting from the city and
+ * visiting all the cities of the subset. The vehicle has to visit all the
+ * cities where a task is still to be picked up or delivered, so the length of
+ * the route over the ones in any pattern is a lower bound of the distance it
+ * still has to travel, and the heuristic takes the maximum over the patterns.
+ *
+ * The tables only depend on the topology, so they are computed offline, by the
+ * main method or the first time an agent needs them, and written to a binary
+ * file named after a fingerprint of the distances between the cities. The file
+ * is then memory-mapped, and the lookups read it directly.
+ *
+ * The file starts with a header (magic number, number of cities, fingerprint,
+ * number of patterns and the city mask of each pattern), followed by the table
+ * of each pattern, indexed by city id * 2^(pattern size) + subset, where bit i
+ * of the subset is the i-th city of the pattern by increasing id.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class PatternDatabase {
+
+	private static final int MAGIC = 0x50444231; // "PDB1", first int of the file
+	private static final int MAX_PATTERN_SIZE = 20; // Maximum number of cities of a pattern
+
+	private int numCities; // Number of cities of the topology
+	private long[] patternMasks; // Bitmask of the cities of each pattern
+	private int[] patternSizes; // Number of cities of each pattern
+	private int[][] subsetBits; // For each pattern and city id, the bit of the city in the subsets, 0 if outside
+	private DoubleBuffer[] tables; // Mapped table of each pattern
+	private long fileSize; // Number of bytes of the mapped file
+
+	private PatternDatabase(Path file, Topology topology) throws IOException {
+		super();
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			this.fileSize = channel.size();
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.fileSize);
+		}
+		this.numCities = topology.size();
+		if (mapped.getInt() != MAGIC || mapped.getInt() != this.numCities
+				|| mapped.getLong() != fingerprint(topology))
+			throw new IOException("Pattern database " + file + " was not built for this topology.");
+
+		int numPatterns = mapped.getInt();
+		this.patternMasks = new long[numPatterns];
+		this.patternSizes = new int[numPatterns];
+		this.subsetBits = new int[numPatterns][this.numCities];
+		for (int p = 0; p < numPatterns; p++) {
+			this.patternMasks[p] = mapped.getLong();
+			this.patternSizes[p] = Long.bitCount(this.patternMasks[p]);
+			int i = 0;
+			for (long m = this.patternMasks[p]; m != 0; m &= m - 1)
+				this.subsetBits[p][Long.numberOfTrailingZeros(m)] = 1 << i++;
+		}
+
+		this.tables = new DoubleBuffer[numPatterns];
+		for (int p = 0; p < numPatterns; p++) {
+			int numEntries = this.numCities << this.patternSizes[p];
+			this.tables[p] = mapped.slice().asDoubleBuffer();
+			this.tables[p].limit(numEntries);
+			mapped.position(mapped.position() + 8 * numEntries);
+		}
+	}
+
+	/**
+	 * Method returning the pattern database of the topology stored in the
+	 * directory, after computing and writing it if the directory does not contain
+	 * it yet.
+	 *
+	 * @param topology    topology the database is built for
+	 * @param directory   directory of the database files
+	 * @param patternSize maximum number of cities of each pattern
+	 */
+	public static PatternDatabase load(Topology topology, String directory, int patternSize) {
+		Path file = Paths.get(directory, fileName(topology, patternSize));
+		try {
+			if (Files.exists(file)) {
+				try {
+					return new PatternDatabase(file, topology);
+				} catch (IOException e) {
+					// Stale or truncated file, computed again below
+				}
+			}
+			write(topology, patternSize, file);
+			return new PatternDatabase(file, topology);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Method computing the tables of the patterns of the topology and writing them
+	 * to the file. The file is written under a temporary name and then renamed, so
+	 * that agents loading it concurrently never see it partially written.
+	 */
+	public static void write(Topology topology, int patternSize, Path file) throws IOException {
+		if (topology.size() > 64)
+			throw new IllegalArgumentException("City bitmasks only support topologies of at most 64 cities.");
+		if (patternSize < 1 || patternSize > MAX_PATTERN_SIZE)
+			throw new IllegalArgumentException("The pattern size must be between 1 and " + MAX_PATTERN_SIZE + ".");
+
+		List<City> cities = topology.cities();
+		long[] patternMasks = choosePatterns(cities, patternSize);
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path tmpFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(cities.size());
+			out.writeLong(fingerprint(topology));
+			out.writeInt(patternMasks.length);
+			for (long patternMask : patternMasks)
+				out.writeLong(patternMask);
+			for (long patternMask : patternMasks)
+				for (double distance : computeTable(cities, patternMask))
+					out.writeDouble(distance);
+		}
+		Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Method returning a lower bound of the distance (in km) to travel from a city
+	 * in order to visit all the cities of the mask, i.e. the maximum over the
+	 * patterns of the length of the shortest route visiting the cities of the mask
+	 * that belong to the pattern.
+	 */
+	public double distance(int from, long cityMask) {
+		double distance = 0;
+		for (int p = 0; p < this.tables.length; p++) {
+			int subset = 0;
+			for (long m = cityMask & this.patternMasks[p]; m != 0; m &= m - 1)
+				subset |= this.subsetBits[p][Long.numberOfTrailingZeros(m)];
+			distance = Math.max(distance, this.tables[p].get((from << this.patternSizes[p]) | subset));
+		}
+		return distance;
+	}
+
+	public int getNumPatterns() {
+		return tables.length;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Helper function choosing the patterns of the topology. A topology that fits
+	 * in a single pattern gets exactly one, so the lookups are exact. Otherwise each
+	 * pattern holds the cities closest to a seed city, the seeds being spread by
+	 * always taking the city farthest from the previous ones, and there are enough
+	 * patterns to cover every city about twice.
+	 */
+	private static long[] choosePatterns(List<City> cities, int patternSize) {
+		int numCities = cities.size();
+		if (numCities <= patternSize)
+			return new long[] { (1L << numCities) - 1 };
+
+		int numPatterns = (2 * numCities + patternSize - 1) / patternSize;
+		long[] patternMasks = new long[numPatterns];
+		double[] seedDistance = new double[numCities];
+		Arrays.fill(seedDistance, Double.POSITIVE_INFINITY);
+		int seed = 0;
+		for (int p = 0; p < numPatterns; p++) {
+			City seedCity = cities.get(seed);
+			List<City> byDistance = new ArrayList<>(cities);
+			byDistance.sort((a, b) -> Double.compare(seedCity.distanceTo(a), seedCity.distanceTo(b)));
+			for (City city : byDistance.subList(0, patternSize))
+				patternMasks[p] |= 1L << city.id;
+
+			for (City city : cities)
+				seedDistance[city.id] = Math.min(seedDistance[city.id], seedCity.distanceTo(city));
+			for (City city : cities)
+				if (seedDistance[city.id] > seedDistance[seed])
+					seed = city.id;
+		}
+		return patternMasks;
+	}
+
+	/**
+	 * Helper function computing the table of a pattern with the Held-Karp dynamic
+	 * program: the shortest route starting from the i-th city of the pattern and
+	 * visiting a subset containing it is the minimum, over the j-th city of the
+	 * rest of the subset, of the distance from i to j plus the shortest route
+	 * starting from j and visiting the rest.
+	 */
+	private static double[] computeTable(List<City> cities, long patternMask) {
+		int size = Long.bitCount(patternMask);
+		City[] patternCities = new City[size];
+		int i = 0;
+		for (long m = patternMask; m != 0; m &= m - 1)
+			patternCities[i++] = cities.get(Long.numberOfTrailingZeros(m));
+
+		// Shortest route from city i of the pattern visiting subset s, at s * size + i
+		double[] routes = new double[size << size];
+		for (int s = 1; s < 1 << size; s++) {
+			for (i = 0; i < size; i++) {
+				if ((s & (1 << i)) == 0)
+					continue;
+				int rest = s & ~(1 << i);
+				double route = rest == 0 ? 0 : Double.POSITIVE_INFINITY;
+				for (int j = 0; j < size; j++)
+					if ((rest & (1 << j)) != 0)
+						route = Math.min(route,
+								patternCities[i].distanceTo(patternCities[j]) + routes[rest * size + j]);
+				routes[s * size + i] = route;
+			}
+		}
+
+		double[] table = new double[cities.size() << size];
+		for (City from : cities) {
+			for (int s = 1; s < 1 << size; s++) {
+				double route = Double.POSITIVE_INFINITY;
+				for (i = 0; i < size; i++)
+					if ((s & (1 << i)) != 0)
+						route = Math.min(route, from.distanceTo(patternCities[i]) + routes[s * size + i]);
+				table[(from.id << size) | s] = route;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Helper function hashing the distances between all the cities of the
+	 * topology, which identifies the topology the database was built for.
+	 */
+	static long fingerprint(Topology topology) {
+		long h = topology.size();
+		for (City from : topology.cities())
+			for (City to : topology.cities())
+				h = h * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(from.distanceTo(to));
+		return h ^ (h >>> 31);
+	}
+
+	private static String fileName(Topology topology, int patternSize) {
+		return String.format("topology-%016x-%d.pdb", fingerprint(topology), patternSize);
+	}
+
+	/**
+	 * Offline generation of the pattern database of a topology, from the
+	 * deliberative directory:
+	 *
+	 * <pre>
+	 * java -cp bin:../logist/logist.jar:../logist/lib/* template.PatternDatabase \
+	 *     [topology file] [directory] [pattern size]
+	 * </pre>
+	 */
+	public static void main(String[] args) throws Exception {
+		String topologyFile = args.length > 0 ? args[0] : "config/topology/switzerland.xml";
+		String directory = args.length > 1 ? args[1] : "pdb";
+		int patternSize = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+
+		Topology topology = Parsers.parseTopology(topologyFile);
+		Path file = Paths.get(directory, fileName(topology, patternSize));
+		long start = System.nanoTime();
+		write(topology, patternSize, file);
+		PatternDatabase database = new PatternDatabase(file, topology);
+		System.out.println(String.format("Wrote %s: %d patterns, %d bytes, in %d ms", file, database.getNumPatterns(),
+				database.getFileSize(), (System.nanoTime() - start) / 1000000));
+	}
+
+}
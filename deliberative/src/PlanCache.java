@@ -0,0 +1,306 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.plan.Action;
+import logist.plan.ActionHandler;
+import logist.plan.Plan;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * Bounded cache of the optimal plans computed by the agent, shared by all its
+ * searches. Every suffix of an optimal plan is an optimal plan from the state
+ * it starts from, so each state along a stored plan is cached with its exact
+ * cost to go and the actions of the suffix. The cost to go only depends on the
+ * city, on the tasks still to be picked up or delivered and on the capacity and
+ * cost per km of the vehicle, so the states are keyed by task ids instead of
+ * the bit indices of a search, and can be found again by the later searches of
+ * the agent, whatever the tasks that disappeared meanwhile.
+ *
+ * The cached states are indexed by their key, so a search looks up each of its
+ * states directly, translating its bit indices into task ids, and the cached
+ * states act as leaves with a perfect heuristic. The least recently used states
+ * are evicted first, a lookup finding a state refreshing it. Task ids are only
+ * unique within a simulation, so the cache is cleared when a task id comes back
+ * with another task.
+ *
+ * A lookup costs more than most heuristics, so the cache only pays off when the
+ * agent replans for tasks it already planned for, and it is disabled unless a
+ * size is set.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class PlanCache {
+
+	/**
+	 * Packed state of a vehicle, by task id.
+	 */
+	private static final class Key {
+		final int location;
+		final BitSet tasksToPickup;
+		final BitSet tasksToDeliver;
+		final int capacity;
+		final int costPerKm;
+
+		Key(int location, BitSet tasksToPickup, BitSet tasksToDeliver, int capacity, int costPerKm) {
+			this.location = location;
+			this.tasksToPickup = tasksToPickup;
+			this.tasksToDeliver = tasksToDeliver;
+			this.capacity = capacity;
+			this.costPerKm = costPerKm;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((location * 31 + tasksToPickup.hashCode()) * 31 + tasksToDeliver.hashCode()) * 31
+					+ capacity * 17 + costPerKm;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return location == other.location && capacity == other.capacity && costPerKm == other.costPerKm
+					&& tasksToPickup.equals(other.tasksToPickup) && tasksToDeliver.equals(other.tasksToDeliver);
+		}
+	}
+
+	/**
+	 * Optimal cost to go of a cached state and the actions achieving it.
+	 */
+	private static final class Entry {
+		final double costToGo;
+		final List<Action> actions;
+
+		Entry(double costToGo, List<Action> actions) {
+			this.costToGo = costToGo;
+			this.actions = actions;
+		}
+	}
+
+	/**
+	 * View of the cache from a search, looking up the states of the search by the
+	 * task ids of their bit indices.
+	 */
+	public class Leaves {
+
+		private int[] taskIds; // Id of the task of each bit index of the search
+		private int capacity; // Capacity of the vehicle of the search
+		private int costPerKm; // Cost per km of the vehicle of the search
+		private boolean empty; // Whether no cached state can be found by the search
+		private List<Entry> entries; // Entry of each state of the search found in the cache
+
+		private Leaves(TaskIndex taskIndex, int capacity, int costPerKm, boolean empty) {
+			this.taskIds = new int[taskIndex.getNumTasks()];
+			for (int t = 0; t < this.taskIds.length; t++)
+				this.taskIds[t] = taskIndex.getTask(t).id;
+			this.capacity = capacity;
+			this.costPerKm = costPerKm;
+			this.empty = empty;
+			this.entries = new ArrayList<>();
+		}
+
+		/**
+		 * Method returning the index of the leaf of a state of the search, or -1 if
+		 * the state is not cached.
+		 */
+		public int find(State state) {
+			if (this.empty)
+				return -1;
+			Entry entry = lookup(new Key(state.getLocation(), taskIds(state.getTasksToPickup()),
+					taskIds(state.getTasksToDeliver()), this.capacity, this.costPerKm));
+			if (entry == null)
+				return -1;
+			this.entries.add(entry);
+			return this.entries.size() - 1;
+		}
+
+		public double getCostToGo(int leaf) {
+			return entries.get(leaf).costToGo;
+		}
+
+		/**
+		 * Method appending the cached actions of a leaf to a plan reaching its state.
+		 */
+		public void appendActions(int leaf, Plan plan) {
+			for (Action action : this.entries.get(leaf).actions)
+				plan.append(action);
+		}
+
+		/**
+		 * Helper function translating a mask over the bit indices of the search into
+		 * the set of the ids of its tasks.
+		 */
+		private BitSet taskIds(long[] mask) {
+			BitSet ids = new BitSet();
+			for (int t = TaskIndex.nextSetBit(mask, 0); t >= 0; t = TaskIndex.nextSetBit(mask, t + 1))
+				ids.set(this.taskIds[t]);
+			return ids;
+		}
+	}
+
+	private LinkedHashMap<Key, Entry> entries; // Cached states, from the least recently used
+	private HashMap<Integer, Task> tasks; // Tasks of the stored plans, by id
+
+	public PlanCache(int capacity) {
+		super();
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.tasks = new HashMap<>();
+	}
+
+	/**
+	 * Method caching every state along an optimal plan. The plan is replayed from
+	 * the initial state of the search, the tasks of the index being either waiting
+	 * to be picked up or carried.
+	 *
+	 * @param taskIndex index of the tasks of the search that computed the plan
+	 * @param start     city of the vehicle at the start of the plan
+	 * @param plan      optimal plan for all the tasks of the index
+	 * @param capacity  capacity of the vehicle
+	 * @param costPerKm cost per km of the vehicle
+	 */
+	public synchronized void store(TaskIndex taskIndex, City start, Plan plan, int capacity, int costPerKm) {
+		register(taskIndex);
+		List<Action> actions = new ArrayList<>();
+		for (Action action : plan)
+			actions.add(action);
+		actions = Collections.unmodifiableList(actions);
+
+		// Cost of each action, so that the cost to go of each state is a suffix sum
+		City[] location = { start };
+		double[] suffixCosts = new double[actions.size() + 1];
+		for (int i = 0; i < actions.size(); i++) {
+			suffixCosts[i] = actions.get(i).accept(new ActionHandler<Double>() {
+				@Override
+				public Double moveTo(City city) {
+					double cost = costPerKm * location[0].distanceTo(city);
+					location[0] = city;
+					return cost;
+				}
+
+				@Override
+				public Double pickup(Task task) {
+					return 0.0;
+				}
+
+				@Override
+				public Double deliver(Task task) {
+					return (double) -task.reward;
+				}
+			});
+		}
+		for (int i = actions.size() - 1; i >= 0; i--)
+			suffixCosts[i] += suffixCosts[i + 1];
+
+		BitSet tasksToPickup = new BitSet(), tasksToDeliver = new BitSet();
+		for (int t = 0; t < taskIndex.getNumTasks(); t++)
+			(t < taskIndex.getNumInitialPickups() ? tasksToPickup : tasksToDeliver).set(taskIndex.getTask(t).id);
+		location[0] = start;
+		for (int i = 0; i < actions.size(); i++) {
+			this.entries.put(new Key(location[0].id, (BitSet) tasksToPickup.clone(), (BitSet) tasksToDeliver.clone(),
+					capacity, costPerKm), new Entry(suffixCosts[i], actions.subList(i, actions.size())));
+			actions.get(i).accept(new ActionHandler<Void>() {
+				@Override
+				public Void moveTo(City city) {
+					location[0] = city;
+					return null;
+				}
+
+				@Override
+				public Void pickup(Task task) {
+					tasksToPickup.clear(task.id);
+					tasksToDeliver.set(task.id);
+					return null;
+				}
+
+				@Override
+				public Void deliver(Task task) {
+					tasksToDeliver.clear(task.id);
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Method returning the view of the cache from a new search.
+	 *
+	 * @param taskIndex index of the tasks of the new search
+	 * @param capacity  capacity of the vehicle
+	 * @param costPerKm cost per km of the vehicle
+	 * @return the leaves of the search
+	 */
+	public synchronized Leaves leaves(TaskIndex taskIndex, int capacity, int costPerKm) {
+		// Only the states of the stored plans sharing a task with the search can be
+		// found by it, and the lookups are skipped if there are none
+		boolean shared = false;
+		for (int t = 0; t < taskIndex.getNumTasks(); t++) {
+			Task task = taskIndex.getTask(t);
+			Task known = this.tasks.get(task.id);
+			if (known != null && !isSameTask(known, task)) {
+				clear();
+				shared = false;
+				break;
+			}
+			shared |= known != null;
+		}
+		return new Leaves(taskIndex, capacity, costPerKm, !shared || this.entries.isEmpty());
+	}
+
+	/**
+	 * Helper function returning the entry of a cached state, which becomes the
+	 * most recently used one, or null if the state is not cached.
+	 */
+	private synchronized Entry lookup(Key key) {
+		return this.entries.get(key);
+	}
+
+	/**
+	 * Helper function recording the tasks of a stored plan. A task id already
+	 * recorded for another task means that a new simulation started, so the
+	 * cached states are cleared first.
+	 */
+	private void register(TaskIndex taskIndex) {
+		for (int t = 0; t < taskIndex.getNumTasks(); t++) {
+			Task task = taskIndex.getTask(t);
+			Task known = this.tasks.get(task.id);
+			if (known != null && !isSameTask(known, task)) {
+				clear();
+				break;
+			}
+		}
+		for (int t = 0; t < taskIndex.getNumTasks(); t++)
+			this.tasks.put(taskIndex.getTask(t).id, taskIndex.getTask(t));
+	}
+
+	private void clear() {
+		this.entries.clear();
+		this.tasks.clear();
+	}
+
+	private static boolean isSameTask(Task a, Task b) {
+		return a.pickupCity == b.pickupCity && a.deliveryCity == b.deliveryCity && a.reward == b.reward
+				&& a.weight == b.weight;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
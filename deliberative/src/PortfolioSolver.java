@@ -0,0 +1,344 @@
+package template;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import logist.plan.Plan;
+import logist.topology.Topology;
+
+/**
+ * Portfolio of search configurations, each an algorithm and a heuristic, raced
+ * concurrently on the same planning problem. The first plan of a configuration
+ * that is proven optimal (an exhaustive search, or an optimal search with an
+ * admissible heuristic) is returned, and the other searches are cancelled
+ * through a shared flag that they check at every expansion. The plans of the
+ * other configurations are only used if no optimal configuration succeeds, the
+ * cheapest one being returned then.
+ *
+ * The fastest configuration depends on the topology, so the wins of each
+ * configuration are counted in a file of the topology, named after the same
+ * fingerprint as the pattern databases. The configurations are ranked by their
+ * number of wins, and when there are fewer threads than configurations only the
+ * best ranked ones race, down to a single search. Only the races between
+ * several configurations are counted, so that a single search does not keep
+ * winning by default.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class PortfolioSolver {
+
+	/**
+	 * Search computing a plan with the given configuration, which stops by
+	 * throwing a CancellationException once the flag is set.
+	 */
+	public interface Solver {
+		Plan solve(Configuration configuration, AtomicBoolean cancelled);
+	}
+
+	/**
+	 * Algorithm and heuristic of a search of the portfolio.
+	 */
+	public static final class Configuration {
+		private final DeliberativeAgent.Algorithm algorithm;
+		private final int heuristicId;
+
+		public Configuration(DeliberativeAgent.Algorithm algorithm, int heuristicId) {
+			if (algorithm == DeliberativeAgent.Algorithm.PORTFOLIO)
+				throw new IllegalArgumentException("A portfolio cannot contain another portfolio.");
+			this.algorithm = algorithm;
+			this.heuristicId = heuristicId;
+		}
+
+		/**
+		 * Method parsing a configuration written as ALGORITHM:heuristic-id, for
+		 * example ASTAR:3.
+		 */
+		public static Configuration parse(String configuration) {
+			String[] parts = configuration.trim().split(":");
+			if (parts.length != 2)
+				throw new IllegalArgumentException("Invalid portfolio configuration: " + configuration);
+			return new Configuration(DeliberativeAgent.Algorithm.valueOf(parts[0].trim().toUpperCase()),
+					Integer.parseInt(parts[1].trim()));
+		}
+
+		/**
+		 * Method checking whether the plans of the configuration are proven optimal.
+		 * BFS explores the whole state space, the other optimal algorithms need an
+		 * admissible heuristic, which the dynamic programming solver also uses when
+		 * its table is too large. The anytime and beam searches only return the best
+		 * plan found.
+		 */
+		public boolean isOptimal() {
+			switch (this.algorithm) {
+			case BFS:
+				return true;
+			case ASTAR:
+			case HDASTAR:
+			case IDASTAR:
+			case DP:
+			case DFBNB:
+				return State.isAdmissible(this.heuristicId);
+			default:
+				return false;
+			}
+		}
+
+		public DeliberativeAgent.Algorithm getAlgorithm() {
+			return algorithm;
+		}
+
+		public int getHeuristicId() {
+			return heuristicId;
+		}
+
+		@Override
+		public int hashCode() {
+			return algorithm.hashCode() * 31 + heuristicId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Configuration))
+				return false;
+			Configuration other = (Configuration) obj;
+			return algorithm == other.algorithm && heuristicId == other.heuristicId;
+		}
+
+		@Override
+		public String toString() {
+			return algorithm.name() + ":" + heuristicId;
+		}
+	}
+
+	/**
+	 * Plan computed by a configuration and the time (in ms) it took.
+	 */
+	private static final class Result {
+		final Configuration configuration;
+		final Plan plan;
+		final long time;
+
+		Result(Configuration configuration, Plan plan, long time) {
+			this.configuration = configuration;
+			this.plan = plan;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * Outcome of a race: the configurations raced, by rank, and the plan of the
+	 * winner with the time (in ms) it took.
+	 */
+	public static final class Race {
+		private final List<Configuration> configurations;
+		private final Configuration winner;
+		private final Plan plan;
+		private final long time;
+
+		private Race(List<Configuration> configurations, Result result) {
+			this.configurations = configurations;
+			this.winner = result.configuration;
+			this.plan = result.plan;
+			this.time = result.time;
+		}
+
+		public List<Configuration> getConfigurations() {
+			return configurations;
+		}
+
+		public Configuration getWinner() {
+			return winner;
+		}
+
+		public Plan getPlan() {
+			return plan;
+		}
+
+		public long getTime() {
+			return time;
+		}
+	}
+
+	static final long POLL_MILLIS = 10; // Time (in ms) between the checks of the flag cancelling a race
+
+	private List<Configuration> configurations; // Configurations of the portfolio, in the configured order
+	private int numThreads; // Maximum number of searches run concurrently
+	private Path winsFile; // File counting the wins of each configuration on the topology
+
+	/**
+	 * @param topology       topology of the planning problems
+	 * @param configurations configurations of the portfolio, in the order used
+	 *                       when no wins are counted yet
+	 * @param numThreads     maximum number of searches run concurrently
+	 * @param directory      directory of the files counting the wins
+	 */
+	public PortfolioSolver(Topology topology, List<Configuration> configurations, int numThreads,
+			String directory) {
+		super();
+		if (configurations.isEmpty())
+			throw new IllegalArgumentException("The portfolio needs at least one configuration.");
+		this.configurations = configurations;
+		this.numThreads = Math.max(1, numThreads);
+		this.winsFile = Paths.get(directory,
+				String.format("topology-%016x.wins", PatternDatabase.fingerprint(topology)));
+	}
+
+	/**
+	 * Method parsing a comma-separated list of configurations.
+	 */
+	public static List<Configuration> parseConfigurations(String configurations) {
+		List<Configuration> result = new ArrayList<>();
+		for (String configuration : configurations.split(","))
+			if (!configuration.trim().isEmpty())
+				result.add(Configuration.parse(configuration));
+		return result;
+	}
+
+	/**
+	 * Method racing the best ranked configurations and returning the first proven
+	 * optimal plan, or else the cheapest plan. Several races can run concurrently,
+	 * for example one per vehicle in fleet mode.
+	 *
+	 * @param cancelled flag cancelling the whole race once set, for example when
+	 *                  the fleet no longer needs the plan, null if the race cannot
+	 *                  be cancelled
+	 * @param solver    search computing the plan of a configuration
+	 * @return the outcome of the race
+	 * @throws CancellationException if the race was cancelled
+	 */
+	public Race race(AtomicBoolean cancelled, Solver solver) {
+		Map<String, long[]> wins = readWins();
+		List<Configuration> ranked = new ArrayList<>(this.configurations);
+		ranked.sort((a, b) -> Long.compare(winsOf(wins, b)[0], winsOf(wins, a)[0]));
+		List<Configuration> racing = ranked.subList(0, Math.min(this.numThreads, ranked.size()));
+
+		AtomicBoolean finished = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(racing.size(), runnable -> {
+			Thread thread = new Thread(runnable, "portfolio-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+		long start = System.nanoTime();
+		try {
+			for (Configuration configuration : racing)
+				results.submit(() -> new Result(configuration, solver.solve(configuration, finished),
+						(System.nanoTime() - start) / 1000000));
+
+			// The first optimal plan wins, the others are kept in case none is found
+			Result best = null;
+			for (int i = 0; i < racing.size(); i++) {
+				Result result;
+				try {
+					Future<Result> future;
+					while ((future = results.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null)
+						if (cancelled != null && cancelled.get())
+							throw new CancellationException("Portfolio race cancelled.");
+					result = future.get();
+				} catch (ExecutionException e) {
+					System.out.println("Portfolio search failed: " + e.getCause());
+					continue;
+				}
+				if (result.configuration.isOptimal()) {
+					best = result;
+					break;
+				}
+				if (best == null || result.plan.totalDistance() < best.plan.totalDistance())
+					best = result;
+			}
+			if (best == null)
+				throw new IllegalStateException("All the searches of the portfolio failed.");
+
+			if (racing.size() > 1 && best.configuration.isOptimal())
+				recordWin(best);
+			return new Race(racing, best);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the portfolio searches.", e);
+		} finally {
+			// The searches still running stop at their next expansion
+			finished.set(true);
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Helper function adding a win of the configuration, and its time, to the
+	 * counts of the topology. The agents of a simulation may race on the same
+	 * topology, so the file is updated under a lock and written under a temporary
+	 * name before being renamed.
+	 */
+	private void recordWin(Result result) {
+		synchronized (PortfolioSolver.class) {
+			Map<String, long[]> wins = readWins();
+			long[] counts = wins.computeIfAbsent(result.configuration.toString(), k -> new long[2]);
+			counts[0]++;
+			counts[1] += result.time;
+
+			List<String> lines = new ArrayList<>();
+			for (Map.Entry<String, long[]> entry : wins.entrySet())
+				lines.add(entry.getKey() + " " + entry.getValue()[0] + " " + entry.getValue()[1]);
+			try {
+				Path directory = this.winsFile.toAbsolutePath().getParent();
+				Files.createDirectories(directory);
+				Path tmpFile = Files.createTempFile(directory, this.winsFile.getFileName().toString(), ".tmp");
+				Files.write(tmpFile, lines, StandardCharsets.UTF_8);
+				Files.move(tmpFile, this.winsFile, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				System.out.println("Could not write the portfolio wins: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Helper function reading the number of wins and their total time (in ms) of
+	 * each configuration on the topology, one configuration per line.
+	 */
+	private Map<String, long[]> readWins() {
+		Map<String, long[]> wins = new HashMap<>();
+		if (!Files.exists(this.winsFile))
+			return wins;
+		try {
+			for (String line : Files.readAllLines(this.winsFile, StandardCharsets.UTF_8)) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length == 3)
+					wins.put(fields[0], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Could not read the portfolio wins: " + e.getMessage());
+		}
+		return wins;
+	}
+
+	private static long[] winsOf(Map<String, long[]> wins, Configuration configuration) {
+		return wins.getOrDefault(configuration.toString(), new long[2]);
+	}
+
+	public List<Configuration> getConfigurations() {
+		return configurations;
+	}
+
+	public Path getWinsFile() {
+		return winsFile;
+	}
+
+}
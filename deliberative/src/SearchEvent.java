@@ -0,0 +1,58 @@
+package template;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event emitted once per deliberative search, filled by SearchStatistics.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+@Name("template.DeliberativeSearch")
+@Label("Deliberative Search")
+@Category("Logist")
+@Description("Metrics of a search of the deliberative planner")
+public class SearchEvent extends Event {
+
+	@Label("Algorithm")
+	String algorithm;
+
+	@Label("Tasks")
+	int numTasks;
+
+	@Label("Nodes Generated")
+	long numGenerated;
+
+	@Label("Nodes Expanded")
+	long numExpanded;
+
+	@Label("Nodes Reopened")
+	long numReopened;
+
+	@Label("Peak Open Size")
+	long peakOpenSize;
+
+	@Label("Peak Closed Size")
+	long peakClosedSize;
+
+	@Label("Heuristic Evaluations")
+	long numHeuristicEvaluations;
+
+	@Label("Expansions Per Second")
+	double expansionsPerSecond;
+
+	@Label("Time To First Goal")
+	@Timespan(Timespan.NANOSECONDS)
+	long timeToFirstGoal;
+
+	@Label("Bytes Per Node")
+	@DataAmount
+	long bytesPerNode;
+
+}
@@ -0,0 +1,89 @@
+package template;
+
+import java.util.HashMap;
+
+import logist.task.Task;
+
+/**
+ * Lower bounds of the cost to go learned by an A* search, reused by the search
+ * that replans after the plan is cancelled.
+ *
+ * Once A* has found a goal of cost C, every state s it expanded satisfies
+ * h*(s) >= C - g(s), which is usually far more informed than the heuristic. The
+ * cost to go of a state only depends on its city and on the tasks still to be
+ * picked up or delivered, and after a cancellation the tasks can only have
+ * disappeared, so every state of the new search is a state of the previous one
+ * and its learned bound stays valid. The states involving a task that
+ * disappeared are simply never looked up again. The bounds are admissible
+ * whenever the heuristic of the previous search is.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class SearchMemory {
+
+	private TaskIndex taskIndex; // Index of the tasks of the previous search
+	private StateTable expandedStates; // States of the previous search and the index of their bound
+	private double[] costToGo; // Lower bound of the cost to go of each state, -Infinity if not expanded
+
+	private int[] bitTranslation; // Bit index in the previous search of each task of the current search
+	private long[] translatedTasksToPickup; // Buffer for the pickup mask of a translated state
+	private long[] translatedTasksToDeliver; // Buffer for the delivery mask of a translated state
+
+	public SearchMemory(TaskIndex taskIndex, StateTable expandedStates, double[] costToGo) {
+		super();
+		this.taskIndex = taskIndex;
+		this.expandedStates = expandedStates;
+		this.costToGo = costToGo;
+		this.translatedTasksToPickup = new long[taskIndex.getNumWords()];
+		this.translatedTasksToDeliver = new long[taskIndex.getNumWords()];
+	}
+
+	/**
+	 * Method preparing the memory to be looked up with the states of a new search.
+	 *
+	 * @param newTaskIndex index of the tasks of the new search
+	 * @return false if some task of the new search was unknown to the previous
+	 *         one, in which case the memory cannot be used
+	 */
+	public boolean translateTo(TaskIndex newTaskIndex) {
+		HashMap<Integer, Integer> bitOfTask = new HashMap<>();
+		for (int t = 0; t < this.taskIndex.getNumTasks(); t++)
+			bitOfTask.put(this.taskIndex.getTask(t).id, t);
+
+		this.bitTranslation = new int[newTaskIndex.getNumTasks()];
+		for (int t = 0; t < newTaskIndex.getNumTasks(); t++) {
+			Task task = newTaskIndex.getTask(t);
+			Integer bit = bitOfTask.get(task.id);
+			if (bit == null)
+				return false;
+			this.bitTranslation[t] = bit;
+		}
+		return true;
+	}
+
+	/**
+	 * Method returning the learned lower bound of the cost to go of a state of the
+	 * new search, or -Infinity if the previous search did not expand it.
+	 */
+	public double costToGo(State state) {
+		translate(state.getTasksToPickup(), this.translatedTasksToPickup);
+		translate(state.getTasksToDeliver(), this.translatedTasksToDeliver);
+		State translatedState = new State(state.getLocation(), this.translatedTasksToPickup,
+				this.translatedTasksToDeliver, state.getCarriedWeight());
+		int index = this.expandedStates.get(translatedState);
+		return index < 0 ? Double.NEGATIVE_INFINITY : this.costToGo[index];
+	}
+
+	private void translate(long[] mask, long[] translatedMask) {
+		for (int w = 0; w < translatedMask.length; w++)
+			translatedMask[w] = 0;
+		for (int t = TaskIndex.nextSetBit(mask, 0); t >= 0; t = TaskIndex.nextSetBit(mask, t + 1))
+			TaskIndex.setBit(translatedMask, this.bitTranslation[t]);
+	}
+
+	public int size() {
+		return expandedStates.size();
+	}
+
+}
@@ -0,0 +1,210 @@
+package template;
+
+import java.util.Locale;
+
+/**
+ * Metrics of a single search, filled by the algorithms while they run. The
+ * counters are not synchronized: a parallel search keeps one instance per
+ * worker and merges them once the workers are done.
+ *
+ * When the search finishes, the metrics are emitted as a JFR event, so that
+ * they can be correlated with the GC activity in a flight recording, and can
+ * be dumped as a JSON object.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class SearchStatistics {
+
+	private String algorithm; // Name of the algorithm of the search
+	private int numTasks; // Number of tasks of the search
+
+	private long numGenerated; // Number of child nodes generated
+	private long numExpanded; // Number of nodes expanded
+	private long numReopened; // Number of nodes reached again with a lower cost after being expanded
+	private long peakOpenSize; // Maximum number of nodes waiting to be expanded
+	private long peakClosedSize; // Maximum number of states in the closed set
+	private long numHeuristicEvaluations; // Number of calls to the heuristic function
+	private long bytesPerNode; // Estimated number of bytes used by each node and its closed set entry
+
+	private long startTime; // Value of System.nanoTime() when the search started
+	private long timeToFirstGoal; // Time (in ns) until the first goal was found, -1 if none
+	private long elapsedTime; // Duration (in ns) of the search
+
+	private SearchEvent event; // JFR event spanning the search
+
+	public SearchStatistics(String algorithm, int numTasks) {
+		super();
+		this.algorithm = algorithm;
+		this.numTasks = numTasks;
+		this.timeToFirstGoal = -1;
+		this.event = new SearchEvent();
+		this.event.begin();
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Method estimating the number of bytes of the objects of a search node: the
+	 * node, its state and its action, plus both task masks in case they are not
+	 * shared with the parent. It assumes a 64-bit JVM with compressed pointers.
+	 */
+	public static long estimateNodeBytes(int numWords) {
+		long nodeBytes = 40; // Header, 3 references and 2 doubles
+		long stateBytes = 64; // Header, 2 references, 3 ints and 4 longs
+		long maskBytes = 2 * (16 + 8L * numWords); // Header, length and words of both masks
+		long actionBytes = 16; // Header and 1 reference
+		return nodeBytes + stateBytes + maskBytes + actionBytes;
+	}
+
+	public void nodeGenerated() {
+		this.numGenerated++;
+	}
+
+	public void nodesGenerated(long count) {
+		this.numGenerated += count;
+	}
+
+	public void nodeExpanded() {
+		this.numExpanded++;
+	}
+
+	public void nodesExpanded(long count) {
+		this.numExpanded += count;
+	}
+
+	public void nodeReopened() {
+		this.numReopened++;
+	}
+
+	public void heuristicEvaluated() {
+		this.numHeuristicEvaluations++;
+	}
+
+	/**
+	 * Method recording the current sizes of the open list and of the closed set.
+	 */
+	public void sizes(long openSize, long closedSize) {
+		if (openSize > this.peakOpenSize)
+			this.peakOpenSize = openSize;
+		if (closedSize > this.peakClosedSize)
+			this.peakClosedSize = closedSize;
+	}
+
+	/**
+	 * Method recording that a goal was found, only the first one is timed.
+	 */
+	public void goalFound() {
+		if (this.timeToFirstGoal < 0)
+			this.timeToFirstGoal = System.nanoTime() - this.startTime;
+	}
+
+	public void setBytesPerNode(long bytesPerNode) {
+		this.bytesPerNode = bytesPerNode;
+	}
+
+	/**
+	 * Method adding the counters of a search run concurrently with this one, such
+	 * as another worker of a parallel search. The peak sizes are summed, which
+	 * bounds the peak of the whole search from above.
+	 */
+	public void merge(SearchStatistics other) {
+		this.numGenerated += other.numGenerated;
+		this.numExpanded += other.numExpanded;
+		this.numReopened += other.numReopened;
+		this.peakOpenSize += other.peakOpenSize;
+		this.peakClosedSize += other.peakClosedSize;
+		this.numHeuristicEvaluations += other.numHeuristicEvaluations;
+		this.bytesPerNode = Math.max(this.bytesPerNode, other.bytesPerNode);
+		if (other.timeToFirstGoal >= 0) {
+			long otherTime = other.startTime + other.timeToFirstGoal - this.startTime;
+			if (this.timeToFirstGoal < 0 || otherTime < this.timeToFirstGoal)
+				this.timeToFirstGoal = otherTime;
+		}
+	}
+
+	/**
+	 * Method stopping the clock of the search and emitting its JFR event.
+	 */
+	public void finish() {
+		this.elapsedTime = System.nanoTime() - this.startTime;
+		this.event.end();
+		if (this.event.shouldCommit()) {
+			this.event.algorithm = this.algorithm;
+			this.event.numTasks = this.numTasks;
+			this.event.numGenerated = this.numGenerated;
+			this.event.numExpanded = this.numExpanded;
+			this.event.numReopened = this.numReopened;
+			this.event.peakOpenSize = this.peakOpenSize;
+			this.event.peakClosedSize = this.peakClosedSize;
+			this.event.numHeuristicEvaluations = this.numHeuristicEvaluations;
+			this.event.expansionsPerSecond = getExpansionsPerSecond();
+			this.event.timeToFirstGoal = this.timeToFirstGoal;
+			this.event.bytesPerNode = getBytesPerNode();
+			this.event.commit();
+		}
+	}
+
+	public double getExpansionsPerSecond() {
+		return elapsedTime > 0 ? numExpanded * 1e9 / elapsedTime : 0;
+	}
+
+	public long getBytesPerNode() {
+		return bytesPerNode;
+	}
+
+	/**
+	 * Method returning the metrics as a JSON object on a single line. Times are in
+	 * milliseconds.
+	 */
+	public String toJson() {
+		return String.format(Locale.ROOT,
+				"{\"algorithm\":\"%s\",\"tasks\":%d,\"generated\":%d,\"expanded\":%d,\"reopened\":%d,"
+						+ "\"peakOpen\":%d,\"peakClosed\":%d,\"heuristicEvaluations\":%d,\"expansionsPerSecond\":%.1f,"
+						+ "\"timeToFirstGoalMs\":%s,\"elapsedMs\":%.3f,\"bytesPerNode\":%d}",
+				this.algorithm, this.numTasks, this.numGenerated, this.numExpanded, this.numReopened,
+				this.peakOpenSize, this.peakClosedSize, this.numHeuristicEvaluations, getExpansionsPerSecond(),
+				this.timeToFirstGoal < 0 ? "null" : String.format(Locale.ROOT, "%.3f", this.timeToFirstGoal / 1e6),
+				this.elapsedTime / 1e6, getBytesPerNode());
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getNumTasks() {
+		return numTasks;
+	}
+
+	public long getNumGenerated() {
+		return numGenerated;
+	}
+
+	public long getNumExpanded() {
+		return numExpanded;
+	}
+
+	public long getNumReopened() {
+		return numReopened;
+	}
+
+	public long getPeakOpenSize() {
+		return peakOpenSize;
+	}
+
+	public long getPeakClosedSize() {
+		return peakClosedSize;
+	}
+
+	public long getNumHeuristicEvaluations() {
+		return numHeuristicEvaluations;
+	}
+
+	public long getTimeToFirstGoal() {
+		return timeToFirstGoal;
+	}
+
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+}
@@ -0,0 +1,113 @@
+package template;
+
+import java.util.List;
+
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Class computing the weight of the minimum spanning tree over a set of cities
+ * of the topology, with the shortest-path distance as edge weight. Results are
+ * memoized by city bitmask in a bounded direct-mapped cache, so the cache only
+ * depends on the topology and can be shared by all the searches of an agent.
+ *
+ * Each cache slot holds an immutable entry, so concurrent searches can share
+ * the cache without locking: a racing write can only replace an entry, never
+ * mix the key of one entry with the value of another.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class SpanningTreeCache {
+
+	private static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private List<City> cities; // Cities of the topology, indexed by their id
+	private Entry[] table; // Cached entries, the slot of an entry depends on its city mask
+	private int mask; // Number of slots - 1, the number of slots being a power of 2
+
+	private static final class Entry {
+		final long cityMask;
+		final double weight;
+
+		Entry(long cityMask, double weight) {
+			this.cityMask = cityMask;
+			this.weight = weight;
+		}
+	}
+
+	public SpanningTreeCache(Topology topology) {
+		this(topology, DEFAULT_CAPACITY);
+	}
+
+	public SpanningTreeCache(Topology topology, int capacity) {
+		super();
+		if (topology.size() > 64)
+			throw new IllegalArgumentException("City bitmasks only support topologies of at most 64 cities.");
+		int numSlots = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.cities = topology.cities();
+		this.table = new Entry[numSlots];
+		this.mask = numSlots - 1;
+	}
+
+	/**
+	 * Method returning the weight (in km) of the minimum spanning tree over the
+	 * cities in the mask.
+	 *
+	 * @param cityMask bitmask over the city ids
+	 * @return the total distance of the tree, 0 for less than two cities
+	 */
+	public double weight(long cityMask) {
+		long h = cityMask * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h ^ (h >>> 32)) & this.mask;
+		Entry entry = this.table[slot];
+		if (entry != null && entry.cityMask == cityMask)
+			return entry.weight;
+
+		double weight = computeWeight(cityMask);
+		this.table[slot] = new Entry(cityMask, weight);
+		return weight;
+	}
+
+	/**
+	 * Method implementing Prim's algorithm on the complete graph over the cities in
+	 * the mask.
+	 */
+	private double computeWeight(long cityMask) {
+		int numCities = Long.bitCount(cityMask);
+		if (numCities < 2)
+			return 0;
+
+		City[] treeCities = new City[numCities];
+		int i = 0;
+		for (long m = cityMask; m != 0; m &= m - 1)
+			treeCities[i++] = this.cities.get(Long.numberOfTrailingZeros(m));
+
+		// Distance of each city from the tree, the first city being the root
+		double[] minDistance = new double[numCities];
+		boolean[] inTree = new boolean[numCities];
+		inTree[0] = true;
+		for (i = 1; i < numCities; i++)
+			minDistance[i] = treeCities[0].distanceTo(treeCities[i]);
+
+		double weight = 0;
+		for (int added = 1; added < numCities; added++) {
+			int closest = -1;
+			for (i = 1; i < numCities; i++) {
+				if (!inTree[i] && (closest < 0 || minDistance[i] < minDistance[closest]))
+					closest = i;
+			}
+			inTree[closest] = true;
+			weight += minDistance[closest];
+			for (i = 1; i < numCities; i++) {
+				if (!inTree[i]) {
+					double distance = treeCities[closest].distanceTo(treeCities[i]);
+					if (distance < minDistance[i])
+						minDistance[i] = distance;
+				}
+			}
+		}
+		return weight;
+	}
+
+}
@@ -1,43 +1,203 @@
 package template;
 
-import logist.task.Task;
-import logist.task.TaskSet;
+import java.util.Arrays;
+
 import logist.topology.Topology.City;
 
 /**
  * Class implementing the state representation in our model. Contains also
  * methods for extracting useful information from the state.
- * 
+ *
+ * The state is packed as the id of the current city and two bitmasks over the
+ * task indices of a TaskIndex. The masks are never modified once the state is
+ * built, so successors that do not change a mask share it with their parent,
+ * and a successor only allocates the masks it changes, each in a single pass
+ * over the words of its parent's mask.
+ *
+ * The heuristics only depend on the total reward of the remaining tasks and on
+ * the cities where they are picked up or delivered, so the state also carries
+ * these summaries, as a running total and as masks over the city ids, in an
+ * immutable object that MOVE successors share with their parent. A successor
+ * reached by a PICKUP or a DELIVER updates them from the ones of its parent in
+ * O(1), and a state built from its masks alone computes them once, the first
+ * time a heuristic needs them.
+ *
  * @author Andrej Janchevski
  * @author Orazio Rillo
  */
 public class State {
 
-	private City location; // Current city of the vehicle
-	private TaskSet tasksToPickup; // Set of tasks still waiting to be picked up
-	private TaskSet tasksToDeliver; // Set of tasks currently carried by the vehicle, still waiting to be delivered
-
-	private static int heuristicId; // Id of the chosen heuristic function for the A* algorithm
-
 	/**
-	 * Constructor for initial states when there are still no tasks carried by the
-	 * vehicle.
+	 * Summaries of the remaining tasks of a state, which do not depend on the
+	 * location of the vehicle.
 	 */
-	public State(City location, TaskSet tasksToPickup) {
+	private static final class Summary {
+		final long remainingReward; // Total reward of the tasks to pickup or deliver
+		final long pickupCities; // Bitmask of the cities where a task waits to be picked up
+		final long deliveryCities; // Bitmask of the cities where a carried task is to be delivered
+		final long remainingCities; // Bitmask of the cities where a task is still to be picked up or delivered
+
+		Summary(long remainingReward, long pickupCities, long deliveryCities, long remainingCities) {
+			this.remainingReward = remainingReward;
+			this.pickupCities = pickupCities;
+			this.deliveryCities = deliveryCities;
+			this.remainingCities = remainingCities;
+		}
+	}
+
+	private int location; // Id of the current city of the vehicle
+	private long[] tasksToPickup; // Bitmask of the tasks still waiting to be picked up
+	private long[] tasksToDeliver; // Bitmask of the tasks currently carried by the vehicle, still waiting to be
+									// delivered
+	private int carriedWeight; // Total weight of the tasks currently carried by the vehicle
+	private int hash; // Hash code, computed once when the state is built
+
+	private Summary summary; // Summaries of the remaining tasks, null if not summarized yet
+
+	public State(int location, long[] tasksToPickup, long[] tasksToDeliver, int carriedWeight) {
 		super();
 		this.location = location;
 		this.tasksToPickup = tasksToPickup;
-		this.tasksToDeliver = TaskSet.noneOf(tasksToPickup);
+		this.tasksToDeliver = tasksToDeliver;
+		this.carriedWeight = carriedWeight;
+		this.hash = computeHash();
 	}
 
 	/**
-	 * Constructor for the general case.
+	 * Method computing the successor state reached by moving to another city. The
+	 * summaries do not depend on the location, so they are shared.
 	 */
-	public State(City location, TaskSet tasksToPickup, TaskSet tasksToDeliver) {
-		super();
-		this.location = location;
-		this.tasksToPickup = tasksToPickup;
-		this.tasksToDeliver = tasksToDeliver;
+	public State moveTo(int city) {
+		State nextState = new State(city, this.tasksToPickup, this.tasksToDeliver, this.carriedWeight);
+		nextState.summary = this.summary;
+		return nextState;
+	}
+
+	/**
+	 * Method computing the successor state reached by picking up a task in the
+	 * current city.
+	 */
+	public State pickup(int task, TaskIndex taskIndex) {
+		long[] leftTasksToPickup = this.tasksToPickup.clone();
+		TaskIndex.clearBit(leftTasksToPickup, task);
+		long[] newTasksToDeliver = this.tasksToDeliver.clone();
+		TaskIndex.setBit(newTasksToDeliver, task);
+		State nextState = new State(this.location, leftTasksToPickup, newTasksToDeliver,
+				this.carriedWeight + taskIndex.getWeight(task));
+
+		// The task stays remaining, only its pickup city may be left without events
+		if (this.summary != null) {
+			int pickupCity = taskIndex.getPickupCity(task);
+			long pickupCities = this.summary.pickupCities;
+			if (!TaskIndex.intersects(leftTasksToPickup, taskIndex.getPickupsIn(pickupCity)))
+				pickupCities &= ~(1L << pickupCity);
+			long remainingCities = this.summary.remainingCities;
+			if (!taskIndex.hasTaskEventIn(pickupCity, leftTasksToPickup, newTasksToDeliver))
+				remainingCities &= ~(1L << pickupCity);
+			nextState.summary = new Summary(this.summary.remainingReward, pickupCities,
+					this.summary.deliveryCities | (1L << taskIndex.getDeliveryCity(task)), remainingCities);
+		}
+		return nextState;
+	}
+
+	/**
+	 * Method computing the successor state reached by delivering a task in the
+	 * current city.
+	 */
+	public State deliver(int task, TaskIndex taskIndex) {
+		long[] leftTasksToDeliver = this.tasksToDeliver.clone();
+		TaskIndex.clearBit(leftTasksToDeliver, task);
+		State nextState = new State(this.location, this.tasksToPickup, leftTasksToDeliver,
+				this.carriedWeight - taskIndex.getWeight(task));
+
+		if (this.summary != null) {
+			int deliveryCity = taskIndex.getDeliveryCity(task);
+			long deliveryCities = this.summary.deliveryCities;
+			if (!TaskIndex.intersects(leftTasksToDeliver, taskIndex.getDeliveriesIn(deliveryCity)))
+				deliveryCities &= ~(1L << deliveryCity);
+			long remainingCities = this.summary.remainingCities;
+			if (!taskIndex.hasTaskEventIn(deliveryCity, this.tasksToPickup, leftTasksToDeliver))
+				remainingCities &= ~(1L << deliveryCity);
+			nextState.summary = new Summary(this.summary.remainingReward - taskIndex.getReward(task),
+					this.summary.pickupCities, deliveryCities, remainingCities);
+		}
+		return nextState;
+	}
+
+	/**
+	 * Method computing the successor state reached by delivering all the carried
+	 * tasks whose delivery city is the current one. This is the last state of a
+	 * chain of single deliveries, built without the states in between.
+	 */
+	public State deliverAll(TaskIndex taskIndex) {
+		long[] deliveriesHere = taskIndex.getDeliveriesIn(this.location);
+		long[] leftTasksToDeliver = new long[this.tasksToDeliver.length];
+		int deliveredWeight = 0;
+		long deliveredReward = 0;
+		for (int w = 0; w < leftTasksToDeliver.length; w++) {
+			long delivered = this.tasksToDeliver[w] & deliveriesHere[w];
+			leftTasksToDeliver[w] = this.tasksToDeliver[w] & ~delivered;
+			for (; delivered != 0; delivered &= delivered - 1) {
+				int t = (w << 6) + Long.numberOfTrailingZeros(delivered);
+				deliveredWeight += taskIndex.getWeight(t);
+				deliveredReward += taskIndex.getReward(t);
+			}
+		}
+		State nextState = new State(this.location, this.tasksToPickup, leftTasksToDeliver,
+				this.carriedWeight - deliveredWeight);
+
+		// No carried task is left to deliver in the current city
+		if (this.summary != null) {
+			long remainingCities = this.summary.remainingCities;
+			if (!taskIndex.hasTaskEventIn(this.location, this.tasksToPickup, leftTasksToDeliver))
+				remainingCities &= ~(1L << this.location);
+			nextState.summary = new Summary(this.summary.remainingReward - deliveredReward, this.summary.pickupCities,
+					this.summary.deliveryCities & ~(1L << this.location), remainingCities);
+		}
+		return nextState;
+	}
+
+	/**
+	 * Method computing the summaries of a state built from its masks alone, if not
+	 * done yet. Its successors then update them incrementally, so a state should be
+	 * summarized before it is expanded.
+	 */
+	public void summarize(TaskIndex taskIndex) {
+		if (this.summary != null)
+			return;
+		long reward = 0, pickupCities = 0, pendingDeliveryCities = 0, deliveryCities = 0;
+		for (int t = TaskIndex.nextSetBit(tasksToPickup, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToPickup, t + 1)) {
+			reward += taskIndex.getReward(t);
+			pickupCities |= 1L << taskIndex.getPickupCity(t);
+			pendingDeliveryCities |= 1L << taskIndex.getDeliveryCity(t);
+		}
+		for (int t = TaskIndex.nextSetBit(tasksToDeliver, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToDeliver, t + 1)) {
+			reward += taskIndex.getReward(t);
+			deliveryCities |= 1L << taskIndex.getDeliveryCity(t);
+		}
+		this.summary = new Summary(reward, pickupCities, deliveryCities,
+				pickupCities | pendingDeliveryCities | deliveryCities);
+	}
+
+	/**
+	 * Method checking whether, in the given city, the vehicle could deliver one of
+	 * the carried tasks or pick up one of the remaining tasks without exceeding the
+	 * free capacity.
+	 */
+	public boolean hasTaskEventIn(int city, int freeCapacity, TaskIndex taskIndex) {
+		long[] deliveriesIn = taskIndex.getDeliveriesIn(city), pickupsIn = taskIndex.getPickupsIn(city);
+		for (int w = 0; w < this.tasksToDeliver.length; w++) {
+			if ((this.tasksToDeliver[w] & deliveriesIn[w]) != 0)
+				return true;
+			long pickups = this.tasksToPickup[w] & pickupsIn[w];
+			while (pickups != 0) {
+				int t = (w << 6) + Long.numberOfTrailingZeros(pickups);
+				if (taskIndex.getWeight(t) <= freeCapacity)
+					return true;
+				pickups &= pickups - 1;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -45,92 +205,143 @@ public class State {
 	 * no more tasks to pickup or deliver.
 	 */
 	public boolean isGoalState() {
-		return this.tasksToPickup.isEmpty() && this.tasksToDeliver.isEmpty();
+		return TaskIndex.isEmpty(this.tasksToPickup) && TaskIndex.isEmpty(this.tasksToDeliver);
 	}
 
 	/**
-	 * Method returning the heuristic value of the state. Calls one of three
-	 * possible heuristic implementations depending on the chosen heuristic id.
-	 * 
-	 * @param costPerKm constant representing the cost to pay per km traveled
+	 * Method returning the heuristic value of the state. Calls one of five
+	 * possible heuristic implementations depending on the given heuristic id, so
+	 * that concurrent searches can use different heuristics.
+	 *
+	 * @param taskIndex   index of the tasks the state masks refer to
+	 * @param costPerKm   constant representing the cost to pay per km traveled
+	 * @param heuristicId id of the heuristic function
 	 * @return heuristic estimate of the state
 	 */
-	public double getHCost(int costPerKm) {
-		switch (State.heuristicId) {
+	public double getHCost(TaskIndex taskIndex, int costPerKm, int heuristicId) {
+		// The summaries need the cities to fit in a mask, otherwise the heuristic is
+		// computed from the task masks. The spanning tree and pattern database
+		// heuristics need city masks too, so the agent rejects them then
+		if (!taskIndex.hasCityMasks()) {
+			switch (heuristicId) {
+			case 0:
+				return this.getHCostMinDistNeighbor(taskIndex, costPerKm);
+			case 1:
+				return this.getHCostMinDistTaskCity(taskIndex, costPerKm);
+			case 2:
+				return this.getHCostTotalDistEstimate(taskIndex, costPerKm);
+			default:
+				throw new AssertionError("Invalid heuristic id above 64 cities. Can only be equal to 0, 1 or 2.");
+			}
+		}
+
+		summarize(taskIndex);
+		if (this.isGoalState())
+			return 0;
+
+		// Same values as the methods below for the first three definitions, from the
+		// summaries and the distance matrix
+		Summary summary = this.summary;
+		double distance;
+		switch (heuristicId) {
 		case 0:
-			return this.getHCostMinDistNeighbor(costPerKm);
+			distance = taskIndex.getMinNeighborDistance(this.location);
+			break;
 		case 1:
-			return this.getHCostMinDistTaskCity(costPerKm);
+			distance = taskIndex.nearestDistance(this.location, summary.pickupCities | summary.deliveryCities);
+			break;
 		case 2:
-			return this.getHCostTotalDistEstimate(costPerKm);
+			distance = 0;
+			if (summary.pickupCities != 0)
+				distance += TaskIndex.bitCount(this.tasksToPickup)
+						* taskIndex.nearestDistance(this.location, summary.pickupCities);
+			if (summary.deliveryCities != 0)
+				distance += TaskIndex.bitCount(this.tasksToDeliver)
+						* taskIndex.nearestDistance(this.location, summary.deliveryCities);
+			break;
+		case 3:
+			// Any route visiting the current city and all the remaining cities is a
+			// spanning tree of them, so the weight of the minimum one is a lower bound
+			distance = taskIndex.getSpanningTrees().weight((1L << this.location) | summary.remainingCities);
+			break;
+		case 4:
+			// Any route completing the tasks visits all the remaining cities
+			distance = taskIndex.getPatternDatabase().distance(this.location, summary.remainingCities);
+			break;
 		default:
-			throw new AssertionError("Invalid heuristic id. Can only be equal to 0, 1 or 2.");
+			throw new AssertionError("Invalid heuristic id. Can only be equal to 0, 1, 2, 3 or 4.");
 		}
-
+		return costPerKm * distance - summary.remainingReward;
 	}
 
 	/**
 	 * Method implementing the procedure for computing the heuristic using the first
 	 * definition. Heuristic value is based on the distance to the closest neighbor
 	 * city and the total reward possible.
-	 * 
+	 *
+	 * @param taskIndex index of the tasks the state masks refer to
 	 * @param costPerKm constant representing the cost to pay per km traveled
 	 * @return heuristic estimate of the state
 	 */
-	public double getHCostMinDistNeighbor(int costPerKm) {
+	public double getHCostMinDistNeighbor(TaskIndex taskIndex, int costPerKm) {
 		double minCost = Double.POSITIVE_INFINITY;
 
 		// If there are no tasks left we should not move to a neighbor anymore
-		if (tasksToPickup.isEmpty() && tasksToDeliver.isEmpty())
+		if (this.isGoalState())
 			return 0;
 		else {
 			// Compute the minimum
 			double cost;
-			for (City c : location.neighbors()) {
-				cost = location.distanceTo(c);
+			City city = taskIndex.getCity(location);
+			for (City c : city.neighbors()) {
+				cost = city.distanceTo(c);
 				if (cost < minCost) {
 					minCost = cost;
 				}
 			}
 		}
 
-		return costPerKm * minCost - tasksToPickup.rewardSum() - tasksToDeliver.rewardSum();
+		return costPerKm * minCost - taskIndex.rewardSum(tasksToPickup) - taskIndex.rewardSum(tasksToDeliver);
 	}
 
 	/**
 	 * Method implementing the procedure for computing the heuristic using the
 	 * second definition. Heuristic value is based on the distance to the closest
 	 * pickup OR delivery city of the remaining tasks and the total reward possible.
-	 * 
+	 *
+	 * @param taskIndex index of the tasks the state masks refer to
 	 * @param costPerKm constant representing the cost to pay per km traveled
 	 * @return heuristic estimate of the state
 	 */
-	public double getHCostMinDistTaskCity(int costPerKm) {
+	public double getHCostMinDistTaskCity(TaskIndex taskIndex, int costPerKm) {
 		double minCostPickup = Double.POSITIVE_INFINITY;
 		double minCostDeliver = Double.POSITIVE_INFINITY;
 
 		// If there are no tasks left the minimum distance to all tasks should be 0
-		if (tasksToPickup.isEmpty() && tasksToDeliver.isEmpty())
+		if (this.isGoalState())
 			return 0;
 		else {
 			// Compute the two minima
 			double cost;
-			for (Task t : tasksToPickup) {
-				cost = location.distanceTo(t.pickupCity);
+			City city = taskIndex.getCity(location);
+			for (int t = TaskIndex.nextSetBit(tasksToPickup, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToPickup,
+					t + 1)) {
+				cost = city.distanceTo(taskIndex.getCity(taskIndex.getPickupCity(t)));
 				if (cost < minCostPickup) {
 					minCostPickup = cost;
 				}
 			}
-			for (Task t : tasksToDeliver) {
-				cost = location.distanceTo(t.deliveryCity);
+			for (int t = TaskIndex.nextSetBit(tasksToDeliver, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToDeliver,
+					t + 1)) {
+				cost = city.distanceTo(taskIndex.getCity(taskIndex.getDeliveryCity(t)));
 				if (cost < minCostDeliver) {
 					minCostDeliver = cost;
 				}
 			}
 		}
 
-		return costPerKm * Math.min(minCostPickup, minCostDeliver) - tasksToPickup.rewardSum()
-				- tasksToDeliver.rewardSum();
+		return costPerKm * Math.min(minCostPickup, minCostDeliver) - taskIndex.rewardSum(tasksToPickup)
+				- taskIndex.rewardSum(tasksToDeliver);
 	}
 
 	/**
@@ -138,23 +349,26 @@ public class State {
 	 * definition. Heuristic value is based on a weighted sum of the distance to the
 	 * closest pickup city AND the distance to the closest delivery city of the
 	 * remaining tasks and the total reward possible.
-	 * 
+	 *
+	 * @param taskIndex index of the tasks the state masks refer to
 	 * @param costPerKm constant representing the cost to pay per km traveled
 	 * @return heuristic estimate of the state
 	 */
-	public double getHCostTotalDistEstimate(int costPerKm) {
+	public double getHCostTotalDistEstimate(TaskIndex taskIndex, int costPerKm) {
 		double minCostPickup = Double.POSITIVE_INFINITY;
 		double minCostDeliver = Double.POSITIVE_INFINITY;
 		double cost;
+		City city = taskIndex.getCity(location);
 
 		// If there are no tasks left to pickup the minimum distance to all pickup tasks
 		// should be 0
-		if (tasksToPickup.isEmpty())
+		if (TaskIndex.isEmpty(tasksToPickup))
 			minCostPickup = 0;
 		else {
 			// Compute the minimum
-			for (Task t : tasksToPickup) {
-				cost = location.distanceTo(t.pickupCity);
+			for (int t = TaskIndex.nextSetBit(tasksToPickup, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToPickup,
+					t + 1)) {
+				cost = city.distanceTo(taskIndex.getCity(taskIndex.getPickupCity(t)));
 				if (cost < minCostPickup) {
 					minCostPickup = cost;
 				}
@@ -163,62 +377,68 @@ public class State {
 
 		// If there are no tasks left to deliver the minimum distance to all delivery
 		// tasks should be 0
-		if (tasksToDeliver.isEmpty())
+		if (TaskIndex.isEmpty(tasksToDeliver))
 			minCostDeliver = 0;
 		else {
 			// Compute the minimum
-			for (Task t : tasksToDeliver) {
-				cost = location.distanceTo(t.deliveryCity);
+			for (int t = TaskIndex.nextSetBit(tasksToDeliver, 0); t >= 0; t = TaskIndex.nextSetBit(tasksToDeliver,
+					t + 1)) {
+				cost = city.distanceTo(taskIndex.getCity(taskIndex.getDeliveryCity(t)));
 				if (cost < minCostDeliver) {
 					minCostDeliver = cost;
 				}
 			}
 		}
 
-		return costPerKm * (tasksToPickup.size() * minCostPickup + tasksToDeliver.size() * minCostDeliver)
-				- tasksToPickup.rewardSum() - tasksToDeliver.rewardSum();
+		return costPerKm
+				* (TaskIndex.bitCount(tasksToPickup) * minCostPickup
+						+ TaskIndex.bitCount(tasksToDeliver) * minCostDeliver)
+				- taskIndex.rewardSum(tasksToPickup) - taskIndex.rewardSum(tasksToDeliver);
 	}
 
-	public City getLocation() {
+	public int getLocation() {
 		return location;
 	}
 
-	public void setLocation(City location) {
-		this.location = location;
-	}
-
-	public TaskSet getTasksToPickup() {
+	public long[] getTasksToPickup() {
 		return tasksToPickup;
 	}
 
-	public void setTasksToPickup(TaskSet tasksToPickup) {
-		this.tasksToPickup = tasksToPickup;
-	}
-
-	public TaskSet getTasksToDeliver() {
+	public long[] getTasksToDeliver() {
 		return tasksToDeliver;
 	}
 
-	public void setTasksToDeliver(TaskSet tasksToDeliver) {
-		this.tasksToDeliver = tasksToDeliver;
+	public int getCarriedWeight() {
+		return carriedWeight;
 	}
 
-	public static int getHeuristicId() {
-		return heuristicId;
+	/**
+	 * Method checking whether the given heuristic never overestimates the cost to
+	 * go, so that A* returns optimal plans. The first heuristic charges a move even
+	 * when the remaining tasks can be delivered in the current city, and the third
+	 * one charges the distance to the closest city once per task.
+	 */
+	public static boolean isAdmissible(int heuristicId) {
+		return heuristicId != 0 && heuristicId != 2;
 	}
 
-	public static void setHeuristicId(int heuristicId) {
-		State.heuristicId = heuristicId;
+	/**
+	 * Method mixing the city id and the words of both masks into a hash code.
+	 */
+	private int computeHash() {
+		long h = location;
+		for (long word : tasksToPickup)
+			h = h * 0x9E3779B97F4A7C15L + word;
+		for (long word : tasksToDeliver)
+			h = h * 0x9E3779B97F4A7C15L + word;
+		h ^= h >>> 32;
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 29));
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((location == null) ? 0 : location.hashCode());
-		result = prime * result + ((tasksToDeliver == null) ? 0 : tasksToDeliver.hashCode());
-		result = prime * result + ((tasksToPickup == null) ? 0 : tasksToPickup.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -230,28 +450,14 @@ public class State {
 		if (getClass() != obj.getClass())
 			return false;
 		State other = (State) obj;
-		if (location == null) {
-			if (other.location != null)
-				return false;
-		} else if (!location.equals(other.location))
-			return false;
-		if (tasksToDeliver == null) {
-			if (other.tasksToDeliver != null)
-				return false;
-		} else if (!tasksToDeliver.equals(other.tasksToDeliver))
-			return false;
-		if (tasksToPickup == null) {
-			if (other.tasksToPickup != null)
-				return false;
-		} else if (!tasksToPickup.equals(other.tasksToPickup))
-			return false;
-		return true;
+		return hash == other.hash && location == other.location && Arrays.equals(tasksToPickup, other.tasksToPickup)
+				&& Arrays.equals(tasksToDeliver, other.tasksToDeliver);
 	}
 
 	@Override
 	public String toString() {
-		return String.format("In city %s, tasks to pickup: %s, tasks to deliver: %s", this.location,
-				this.tasksToPickup.toString(), this.tasksToDeliver.toString());
+		return String.format("In city %d, tasks to pickup: %s, tasks to deliver: %s", this.location,
+				Arrays.toString(this.tasksToPickup), Arrays.toString(this.tasksToDeliver));
 	}
 
 }
@@ -0,0 +1,208 @@
+package template;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table used as closed set by the search algorithms. Maps
+ * packed states to the int index of their search node.
+ *
+ * The states are stored as dense entries in primitive arrays (city id, the
+ * words of both task masks, the hash and the value), in insertion order, so an
+ * entry id identifies a visited state for the whole search. The slot array
+ * only holds entry ids and is probed linearly, which means that growing the
+ * table rehashes plain ints using the stored hashes, without touching any
+ * State object.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class StateTable {
+
+	private static final int MAX_INITIAL_CAPACITY = 1 << 14; // Upper bound of the pre-sized number of entries
+	private static final double MAX_LOAD_FACTOR = 0.5;
+
+	private int numWords; // Number of words of each task mask
+	private int stride; // Number of words stored for each entry, i.e. both masks
+
+	private int[] slots; // Entry id + 1 for each slot of the table, 0 if the slot is empty
+	private int mask; // Number of slots - 1, the number of slots being a power of 2
+
+	private int size; // Number of entries
+	private int[] entryLocations; // City id of each entry
+	private long[] entryTasks; // Pickup mask followed by delivery mask of each entry
+	private int[] entryHashes; // Hash code of each entry
+	private int[] entryValues; // Value (node index) of each entry
+
+	public StateTable(int numWords, int expectedSize) {
+		super();
+		this.numWords = numWords;
+		this.stride = 2 * numWords;
+
+		int capacity = Math.max(16, Math.min(expectedSize, MAX_INITIAL_CAPACITY));
+		int numSlots = Integer.highestOneBit((int) (capacity / MAX_LOAD_FACTOR) - 1) << 1;
+		this.slots = new int[numSlots];
+		this.mask = numSlots - 1;
+
+		this.size = 0;
+		this.entryLocations = new int[capacity];
+		this.entryTasks = new long[capacity * this.stride];
+		this.entryHashes = new int[capacity];
+		this.entryValues = new int[capacity];
+	}
+
+	/**
+	 * Method estimating the number of states the search will visit, in order to
+	 * pre-size the table. Every task is either waiting, carried or delivered, so
+	 * there are at most numCities * 3^numTasks states. This bound is loose, and
+	 * reaches the cap from about 7 tasks on, so larger searches grow their table
+	 * instead of allocating a huge one up front.
+	 */
+	public static int estimateNumStates(int numCities, int numTasks) {
+		double estimate = numCities * Math.pow(3, numTasks);
+		return (int) Math.min(estimate, MAX_INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Method computing the number of bytes used by each entry of a table with the
+	 * given number of words per mask, including its share of the slot array.
+	 */
+	public static int bytesPerEntry(int numWords) {
+		return 12 + 16 * numWords + (int) (4 / MAX_LOAD_FACTOR);
+	}
+
+	/**
+	 * Method returning the value associated to the state, or -1 if the state is
+	 * not in the table.
+	 */
+	public int get(State state) {
+		int entry = findEntry(state);
+		return entry < 0 ? -1 : this.entryValues[entry];
+	}
+
+	/**
+	 * Method inserting the state with the given value if it is not in the table
+	 * yet.
+	 *
+	 * @return the value already associated to the state, or -1 if the state has
+	 *         just been inserted
+	 */
+	public int putIfAbsent(State state, int value) {
+		int hash = state.hashCode();
+		int slot = hash & this.mask;
+		while (this.slots[slot] != 0) {
+			int entry = this.slots[slot] - 1;
+			if (matches(entry, state))
+				return this.entryValues[entry];
+			slot = (slot + 1) & this.mask;
+		}
+
+		int entry = addEntry(state, value);
+		this.slots[slot] = entry + 1;
+		if (this.size > this.slots.length * MAX_LOAD_FACTOR)
+			rehash(this.slots.length << 1);
+		return -1;
+	}
+
+	/**
+	 * Method changing the value associated to a state already in the table.
+	 */
+	public void set(State state, int value) {
+		int entry = findEntry(state);
+		if (entry < 0)
+			throw new IllegalArgumentException("State not in the table: " + state);
+		this.entryValues[entry] = value;
+	}
+
+	/**
+	 * Method rebuilding the state of an entry. The carried weight is not stored,
+	 * so it is recomputed from the delivery mask.
+	 */
+	public State getState(int entry, TaskIndex taskIndex) {
+		int offset = entry * this.stride;
+		long[] tasksToPickup = Arrays.copyOfRange(this.entryTasks, offset, offset + this.numWords);
+		long[] tasksToDeliver = Arrays.copyOfRange(this.entryTasks, offset + this.numWords, offset + this.stride);
+		return new State(this.entryLocations[entry], tasksToPickup, tasksToDeliver,
+				taskIndex.weightSum(tasksToDeliver));
+	}
+
+	public int getLocation(int entry) {
+		return entryLocations[entry];
+	}
+
+	/**
+	 * Method copying the delivery mask of an entry into the given array.
+	 */
+	public void copyTasksToDeliver(int entry, long[] tasksToDeliver) {
+		System.arraycopy(this.entryTasks, entry * this.stride + this.numWords, tasksToDeliver, 0, this.numWords);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Method returning the number of bytes of the primitive arrays backing the
+	 * table.
+	 */
+	public long memoryFootprint() {
+		return 4L * this.slots.length + 4L * this.entryLocations.length + 8L * this.entryTasks.length
+				+ 4L * this.entryHashes.length + 4L * this.entryValues.length;
+	}
+
+	private int findEntry(State state) {
+		int slot = state.hashCode() & this.mask;
+		while (this.slots[slot] != 0) {
+			int entry = this.slots[slot] - 1;
+			if (matches(entry, state))
+				return entry;
+			slot = (slot + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	private boolean matches(int entry, State state) {
+		if (this.entryHashes[entry] != state.hashCode() || this.entryLocations[entry] != state.getLocation())
+			return false;
+		long[] tasksToPickup = state.getTasksToPickup(), tasksToDeliver = state.getTasksToDeliver();
+		int offset = entry * this.stride;
+		for (int w = 0; w < this.numWords; w++) {
+			if (this.entryTasks[offset + w] != tasksToPickup[w]
+					|| this.entryTasks[offset + this.numWords + w] != tasksToDeliver[w])
+				return false;
+		}
+		return true;
+	}
+
+	private int addEntry(State state, int value) {
+		if (this.size == this.entryLocations.length)
+			growEntries(this.size << 1);
+
+		int entry = this.size++;
+		this.entryLocations[entry] = state.getLocation();
+		this.entryHashes[entry] = state.hashCode();
+		this.entryValues[entry] = value;
+		int offset = entry * this.stride;
+		System.arraycopy(state.getTasksToPickup(), 0, this.entryTasks, offset, this.numWords);
+		System.arraycopy(state.getTasksToDeliver(), 0, this.entryTasks, offset + this.numWords, this.numWords);
+		return entry;
+	}
+
+	private void growEntries(int capacity) {
+		this.entryLocations = Arrays.copyOf(this.entryLocations, capacity);
+		this.entryTasks = Arrays.copyOf(this.entryTasks, capacity * this.stride);
+		this.entryHashes = Arrays.copyOf(this.entryHashes, capacity);
+		this.entryValues = Arrays.copyOf(this.entryValues, capacity);
+	}
+
+	private void rehash(int numSlots) {
+		this.slots = new int[numSlots];
+		this.mask = numSlots - 1;
+		for (int entry = 0; entry < this.size; entry++) {
+			int slot = this.entryHashes[entry] & this.mask;
+			while (this.slots[slot] != 0)
+				slot = (slot + 1) & this.mask;
+			this.slots[slot] = entry + 1;
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+package template;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import logist.plan.Action.Delivery;
+import logist.plan.Action.Move;
+import logist.plan.Action.Pickup;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Class generating the children of a node of the informed searches. It only
+ * reads the task index and the vehicle properties, so a single generator can be
+ * shared by concurrent searches over the same tasks.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class SuccessorGenerator {
+
+	private Topology topology; // Topology of the search
+	private TaskIndex taskIndex; // Index of the tasks of the search
+	private int capacity; // Total weight capacity of the vehicle
+	private int costPerKm; // Cost per km when moving the vehicle
+	private boolean macroActions; // Whether MOVE actions jump to the cities of the task events
+	private int heuristicId; // Id of the heuristic function evaluated for the children
+	private AtomicBoolean cancelled; // Set when the search has to stop, null if it cannot be cancelled
+	private SearchMemory memory; // Cost to go bounds learned by the previous search, null if none
+	private PlanCache.Leaves leaves; // States with an exact cost to go from the plan cache, null if none
+
+	public SuccessorGenerator(Topology topology, TaskIndex taskIndex, int capacity, int costPerKm,
+			boolean macroActions, int heuristicId) {
+		super();
+		this.topology = topology;
+		this.taskIndex = taskIndex;
+		this.capacity = capacity;
+		this.costPerKm = costPerKm;
+		this.macroActions = macroActions;
+		this.heuristicId = heuristicId;
+	}
+
+	/**
+	 * Method computing h(n) for a state, tightened by the bound learned by the
+	 * previous search if any, and exact if the state is in the plan cache.
+	 */
+	public double hCost(State state, SearchStatistics statistics) {
+		statistics.heuristicEvaluated();
+		if (this.leaves != null) {
+			int leaf = this.leaves.find(state);
+			if (leaf >= 0)
+				return this.leaves.getCostToGo(leaf);
+		}
+		double hCost = state.getHCost(taskIndex, costPerKm, heuristicId);
+		if (this.memory != null)
+			hCost = Math.max(hCost, this.memory.costToGo(state));
+		return hCost;
+	}
+
+	/**
+	 * Callback receiving the children generated by the expansion of a state.
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param state    state of the child
+		 * @param gCost    g(n) of the child
+		 * @param hCost    h(n) of the child, 0 if the heuristic is not evaluated
+		 * @param opcode   action creating the child, as a NodeArena opcode
+		 * @param argument city id of a MOVE, task index of a PICKUP, unused for a
+		 *                 DELIVER
+		 */
+		void visit(State state, double gCost, double hCost, byte opcode, int argument);
+	}
+
+	/**
+	 * Method generating the children of a state, with their g(n) and h(n), without
+	 * building any node or Action object. All the tasks that can be delivered in
+	 * the current city are delivered at once, by a single DELIVER child. Apart
+	 * from the children themselves, nothing is allocated.
+	 *
+	 * Every search expands its nodes here, so this is also where a cancelled
+	 * search stops, by throwing a CancellationException.
+	 *
+	 * @param currentState  state to be expanded
+	 * @param gCost         g(n) of the state
+	 * @param withHeuristic whether h(n) is evaluated for the children
+	 * @param statistics    metrics of the search, updated with the expansion
+	 * @param visitor       callback receiving each child
+	 */
+	public void expand(State currentState, double gCost, boolean withHeuristic, SearchStatistics statistics,
+			Visitor visitor) {
+		checkCancelled();
+		int numChildren = 0;
+		int currentLocation = currentState.getLocation();
+		if (withHeuristic && taskIndex.hasCityMasks())
+			currentState.summarize(taskIndex);
+
+		State nextState = null;
+
+		// All new states created by possible MOVE actions
+		// Can only MOVE to a neighbor node, or to a task city when using macro actions
+		List<City> candidateCities = this.macroActions ? this.topology.cities()
+				: taskIndex.getCity(currentLocation).neighbors();
+		for (int c = 0; c < candidateCities.size(); c++) {
+			City destinationCity = candidateCities.get(c);
+			if (this.macroActions && !isTaskCity(currentState, destinationCity.id))
+				continue;
+			nextState = currentState.moveTo(destinationCity.id);
+			double updatedCost = gCost + this.costPerKm * taskIndex.getDistance(currentLocation, destinationCity.id);
+			visitor.visit(nextState, updatedCost, withHeuristic ? hCost(nextState, statistics) : 0, NodeArena.MOVE,
+					destinationCity.id);
+			numChildren++;
+		}
+
+		// All new states created by possible PICKUP actions
+		// Can only PICKUP a task if currently located in its pickup city and the weight
+		// capacity limit is not breached, and only the first waiting task of a group of
+		// interchangeable tasks
+		long[] tasksToPickup = currentState.getTasksToPickup(), pickupsHere = taskIndex.getPickupsIn(currentLocation);
+		for (int t = TaskIndex.nextCommonBit(tasksToPickup, pickupsHere, 0); t >= 0; t = TaskIndex
+				.nextCommonBit(tasksToPickup, pickupsHere, t + 1)) {
+			if (taskIndex.getWeight(t) + currentState.getCarriedWeight() <= this.capacity
+					&& taskIndex.isNextOfGroup(t, tasksToPickup)) {
+				nextState = currentState.pickup(t, taskIndex);
+				visitor.visit(nextState, gCost, withHeuristic ? hCost(nextState, statistics) : 0, NodeArena.PICKUP,
+						t);
+				numChildren++;
+			}
+		}
+
+		// All the tasks that can be delivered in the current city are delivered at
+		// once, and only the state at the end of the chain of deliveries is a child
+		long[] tasksToDeliver = currentState.getTasksToDeliver(),
+				deliveriesHere = taskIndex.getDeliveriesIn(currentLocation);
+		if (TaskIndex.intersects(tasksToDeliver, deliveriesHere)) {
+			nextState = currentState.deliverAll(taskIndex);
+			double updatedCost = gCost;
+			for (int t = TaskIndex.nextCommonBit(tasksToDeliver, deliveriesHere, 0); t >= 0; t = TaskIndex
+					.nextCommonBit(tasksToDeliver, deliveriesHere, t + 1))
+				updatedCost -= taskIndex.getReward(t);
+			visitor.visit(nextState, updatedCost, withHeuristic ? hCost(nextState, statistics) : 0, NodeArena.DELIVER,
+					-1);
+			numChildren++;
+		}
+
+		statistics.nodeExpanded();
+		statistics.nodesGenerated(numChildren);
+	}
+
+	/**
+	 * Method generating the children of an A* node, with their g(n) and h(n). The
+	 * DELIVER child is the deepest node of a chain with one node per delivered
+	 * task, so that the plan can be inferred from the nodes.
+	 *
+	 * @param currentNode node to be expanded
+	 * @param statistics  metrics of the search, updated with the expansion
+	 * @return the list of the child nodes
+	 */
+	public List<AStarNode> expand(AStarNode currentNode, SearchStatistics statistics) {
+		List<AStarNode> children = new ArrayList<>();
+		expand(currentNode, statistics, children::add);
+		return children;
+	}
+
+	/**
+	 * Method generating the children of an A* node like the method above, handing
+	 * each one to the consumer instead of collecting them in a list.
+	 *
+	 * @param currentNode node to be expanded
+	 * @param statistics  metrics of the search, updated with the expansion
+	 * @param consumer    callback receiving each child node
+	 */
+	public void expand(AStarNode currentNode, SearchStatistics statistics, Consumer<AStarNode> consumer) {
+		State currentState = currentNode.getState();
+		expand(currentState, currentNode.getgCost(), true, statistics, (state, gCost, hCost, opcode, argument) -> {
+			switch (opcode) {
+			case NodeArena.MOVE:
+				consumer.accept(new AStarNode(state, currentNode, gCost, hCost, new Move(taskIndex.getCity(argument))));
+				break;
+			case NodeArena.PICKUP:
+				consumer.accept(
+						new AStarNode(state, currentNode, gCost, hCost, new Pickup(taskIndex.getTask(argument))));
+				break;
+			default:
+				consumer.accept(deliveryChain(currentNode, hCost));
+			}
+		});
+	}
+
+	/**
+	 * Helper function building the chain of DELIVER nodes from a node to the state
+	 * in which all the tasks deliverable in its city have been delivered.
+	 */
+	private AStarNode deliveryChain(AStarNode currentNode, double hCost) {
+		State currentState = currentNode.getState();
+		long[] tasksToDeliver = currentState.getTasksToDeliver(),
+				deliveriesHere = taskIndex.getDeliveriesIn(currentState.getLocation());
+		State nextState = currentState;
+		AStarNode childNode = currentNode;
+		for (int t = TaskIndex.nextCommonBit(tasksToDeliver, deliveriesHere, 0); t >= 0; t = TaskIndex
+				.nextCommonBit(tasksToDeliver, deliveriesHere, t + 1)) {
+			nextState = nextState.deliver(t, taskIndex);
+			childNode = new AStarNode(nextState, childNode, childNode.getgCost() - taskIndex.getReward(t), hCost,
+					new Delivery(taskIndex.getTask(t)));
+		}
+		return childNode;
+	}
+
+	/**
+	 * Method listing the cities the vehicle can MOVE to from the city of the given
+	 * state. Without macro actions these are the neighbor cities. With macro
+	 * actions the vehicle jumps along the shortest path to any city where it can
+	 * pick up a remaining task or deliver a carried one, since an optimal plan
+	 * never needs to stop anywhere else.
+	 *
+	 * @param state state from which the vehicle moves
+	 * @return the list of destination cities
+	 */
+	public List<City> moveDestinations(State state) {
+		City currentCity = taskIndex.getCity(state.getLocation());
+		if (!this.macroActions)
+			return currentCity.neighbors();
+
+		List<City> destinations = new ArrayList<>();
+		for (City city : this.topology.cities()) {
+			if (isTaskCity(state, city.id))
+				destinations.add(city);
+		}
+		return destinations;
+	}
+
+	/**
+	 * Helper function checking whether a city other than the one of the state is a
+	 * destination of a macro MOVE.
+	 */
+	private boolean isTaskCity(State state, int city) {
+		return city != state.getLocation()
+				&& state.hasTaskEventIn(city, this.capacity - state.getCarriedWeight(), taskIndex);
+	}
+
+	/**
+	 * Method stopping the search once the 1 minute available for execution is
+	 * over. A search that can be cancelled, such as a search raced by a portfolio,
+	 * throws a CancellationException so that only this search stops, any other
+	 * search exits.
+	 *
+	 * @param start start time of the search
+	 */
+	public void checkTimeout(Instant start) {
+		if (Duration.between(start, Instant.now()).getSeconds() < 60)
+			return;
+		System.out.println("Timed out when building plan.");
+		if (this.cancelled != null)
+			throw new CancellationException("Timed out when building plan.");
+		System.exit(1);
+	}
+
+	/**
+	 * Method throwing a CancellationException if the search has been cancelled.
+	 */
+	public void checkCancelled() {
+		if (isCancelled())
+			throw new CancellationException("Search cancelled.");
+	}
+
+	public boolean isCancelled() {
+		return cancelled != null && cancelled.get();
+	}
+
+	public void setCancelled(AtomicBoolean cancelled) {
+		this.cancelled = cancelled;
+	}
+
+	public void setMemory(SearchMemory memory) {
+		this.memory = memory;
+	}
+
+	public void setLeaves(PlanCache.Leaves leaves) {
+		this.leaves = leaves;
+	}
+
+	public Topology getTopology() {
+		return topology;
+	}
+
+	public TaskIndex getTaskIndex() {
+		return taskIndex;
+	}
+
+}
@@ -0,0 +1,346 @@
+package template;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Class that assigns a bit index to each task involved in a search, so that
+ * sets of tasks can be stored as bitmasks. Also precomputes, for each city, the
+ * bitmasks of the tasks that are picked up and delivered there, which makes
+ * successor generation a matter of bit operations.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+public class TaskIndex {
+
+	private List<City> cities; // Cities of the topology, indexed by their id
+	private Task[] tasks; // Tasks of the search, indexed by their bit index
+	private int numWords; // Number of 64-bit words needed by a bitmask over all tasks
+	private int numInitialPickups; // Number of tasks waiting to be picked up at the root of the search
+
+	private int[] pickupCity; // Id of the pickup city of each task
+	private int[] deliveryCity; // Id of the delivery city of each task
+	private int[] weight; // Weight of each task
+	private long[] reward; // Reward of each task
+	private long[][] pickupsIn; // For each city, bitmask of the tasks to be picked up there
+	private long[][] deliveriesIn; // For each city, bitmask of the tasks to be delivered there
+	private SpanningTreeCache spanningTrees; // Memoized spanning tree weights, null if not needed
+	private PatternDatabase patternDatabase; // Route lengths over subsets of cities, null if not needed
+	private int[] interchangeablePredecessor; // Previous task to pick up interchangeable with each task, -1 if none
+
+	private double[] distances; // Distance (in km) between each pair of cities, row-major by city id
+	private int[][] citiesByDistance; // For each city, the ids of all cities by increasing distance from it
+	private double[] minNeighborDistance; // For each city, the distance (in km) to its closest neighbor
+
+	/**
+	 * Builds the index over the tasks still to be picked up and the tasks already
+	 * carried by the vehicle.
+	 */
+	public TaskIndex(Topology topology, TaskSet tasksToPickup, TaskSet tasksToDeliver) {
+		this(topology, tasksToPickup, tasksToDeliver, null);
+	}
+
+	/**
+	 * Builds the index, also giving access to a cache of spanning tree weights over
+	 * the topology for the heuristics that need it.
+	 */
+	public TaskIndex(Topology topology, TaskSet tasksToPickup, TaskSet tasksToDeliver,
+			SpanningTreeCache spanningTrees) {
+		this(topology, tasksToPickup, tasksToDeliver, spanningTrees, null);
+	}
+
+	/**
+	 * Builds the index, also giving access to the spanning tree cache and to the
+	 * pattern database of the topology for the heuristics that need them.
+	 */
+	public TaskIndex(Topology topology, TaskSet tasksToPickup, TaskSet tasksToDeliver,
+			SpanningTreeCache spanningTrees, PatternDatabase patternDatabase) {
+		super();
+		this.spanningTrees = spanningTrees;
+		this.patternDatabase = patternDatabase;
+		int numTasks = tasksToPickup.size() + tasksToDeliver.size();
+		this.cities = topology.cities();
+		this.tasks = new Task[numTasks];
+		this.numWords = Math.max(1, (numTasks + 63) / 64);
+		this.numInitialPickups = tasksToPickup.size();
+
+		int i = 0;
+		for (Task t : tasksToPickup)
+			this.tasks[i++] = t;
+		for (Task t : tasksToDeliver)
+			this.tasks[i++] = t;
+
+		this.pickupCity = new int[numTasks];
+		this.deliveryCity = new int[numTasks];
+		this.weight = new int[numTasks];
+		this.reward = new long[numTasks];
+		this.pickupsIn = new long[this.cities.size()][this.numWords];
+		this.deliveriesIn = new long[this.cities.size()][this.numWords];
+		for (i = 0; i < numTasks; i++) {
+			Task t = this.tasks[i];
+			this.pickupCity[i] = t.pickupCity.id;
+			this.deliveryCity[i] = t.deliveryCity.id;
+			this.weight[i] = t.weight;
+			this.reward[i] = t.reward;
+			setBit(this.pickupsIn[t.pickupCity.id], i);
+			setBit(this.deliveriesIn[t.deliveryCity.id], i);
+		}
+		this.interchangeablePredecessor = new int[numTasks];
+		Arrays.fill(this.interchangeablePredecessor, -1);
+
+		int numCities = this.cities.size();
+		this.distances = new double[numCities * numCities];
+		this.citiesByDistance = new int[numCities][];
+		this.minNeighborDistance = new double[numCities];
+		for (City from : this.cities) {
+			for (City to : this.cities)
+				this.distances[from.id * numCities + to.id] = from.distanceTo(to);
+			int row = from.id * numCities;
+			this.citiesByDistance[from.id] = this.cities.stream().sorted(
+					(a, b) -> Double.compare(this.distances[row + a.id], this.distances[row + b.id]))
+					.mapToInt(city -> city.id).toArray();
+			this.minNeighborDistance[from.id] = Double.POSITIVE_INFINITY;
+			for (City neighbor : from.neighbors())
+				this.minNeighborDistance[from.id] = Math.min(this.minNeighborDistance[from.id],
+						this.distances[row + neighbor.id]);
+		}
+	}
+
+	/**
+	 * Method grouping the tasks to pick up that share the pickup city, the
+	 * delivery city and the weight. Such tasks are interchangeable: swapping them
+	 * in a plan changes neither its travel cost nor its total reward, so the
+	 * search only needs to pick them up in index order. Since all the carried
+	 * tasks that can be delivered in a city are delivered together, the tasks of
+	 * a group that are picked up, and those that are delivered, are then always
+	 * the first ones, and a state only depends on how many of them are in each
+	 * status instead of which ones.
+	 */
+	public void groupInterchangeableTasks() {
+		HashMap<List<Integer>, Integer> lastOfGroup = new HashMap<>();
+		for (int i = 0; i < this.numInitialPickups; i++) {
+			List<Integer> group = Arrays.asList(this.pickupCity[i], this.deliveryCity[i], this.weight[i]);
+			Integer last = lastOfGroup.put(group, i);
+			this.interchangeablePredecessor[i] = last == null ? -1 : last;
+		}
+	}
+
+	/**
+	 * Method checking whether the task can be picked up in a state where the
+	 * given tasks are waiting, that is unless an interchangeable task with a lower
+	 * index is still waiting.
+	 */
+	public boolean isNextOfGroup(int i, long[] tasksToPickup) {
+		int predecessor = this.interchangeablePredecessor[i];
+		return predecessor < 0 || (tasksToPickup[predecessor >>> 6] & (1L << predecessor)) == 0;
+	}
+
+	/**
+	 * Method computing the root state of the search, in which the vehicle is
+	 * located in the given city and all indexed tasks are either waiting to be
+	 * picked up or carried, as passed to the constructor.
+	 */
+	public State initialState(City location) {
+		long[] pickupMask = new long[this.numWords];
+		long[] deliverMask = new long[this.numWords];
+		int carriedWeight = 0;
+		for (int i = 0; i < this.tasks.length; i++) {
+			if (i < this.numInitialPickups)
+				setBit(pickupMask, i);
+			else {
+				setBit(deliverMask, i);
+				carriedWeight += this.weight[i];
+			}
+		}
+		return new State(location.id, pickupMask, deliverMask, carriedWeight);
+	}
+
+	/**
+	 * Method returning the index of the first set bit of the mask at or after the
+	 * given index, or -1 if there is none.
+	 */
+	public static int nextSetBit(long[] mask, int from) {
+		int w = from >>> 6;
+		if (w >= mask.length)
+			return -1;
+		long word = mask[w] & (-1L << (from & 63));
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == mask.length)
+				return -1;
+			word = mask[w];
+		}
+	}
+
+	/**
+	 * Method returning the index of the first bit set in both masks at or after the
+	 * given index, or -1 if there is none, without building their intersection.
+	 */
+	public static int nextCommonBit(long[] mask, long[] other, int from) {
+		int w = from >>> 6;
+		if (w >= mask.length)
+			return -1;
+		long word = mask[w] & other[w] & (-1L << (from & 63));
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == mask.length)
+				return -1;
+			word = mask[w] & other[w];
+		}
+	}
+
+	/**
+	 * Method checking whether two masks of the same length have a common bit.
+	 */
+	public static boolean intersects(long[] mask, long[] other) {
+		for (int w = 0; w < mask.length; w++)
+			if ((mask[w] & other[w]) != 0)
+				return true;
+		return false;
+	}
+
+	public static boolean isEmpty(long[] mask) {
+		for (long word : mask)
+			if (word != 0)
+				return false;
+		return true;
+	}
+
+	public static int bitCount(long[] mask) {
+		int count = 0;
+		for (long word : mask)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	public static void setBit(long[] mask, int i) {
+		mask[i >>> 6] |= 1L << i;
+	}
+
+	public static void clearBit(long[] mask, int i) {
+		mask[i >>> 6] &= ~(1L << i);
+	}
+
+	/**
+	 * Method computing the sum of the rewards of the tasks in the mask.
+	 */
+	public long rewardSum(long[] mask) {
+		long sum = 0;
+		for (int i = nextSetBit(mask, 0); i >= 0; i = nextSetBit(mask, i + 1))
+			sum += this.reward[i];
+		return sum;
+	}
+
+	/**
+	 * Method computing the sum of the weights of the tasks in the mask.
+	 */
+	public int weightSum(long[] mask) {
+		int sum = 0;
+		for (int i = nextSetBit(mask, 0); i >= 0; i = nextSetBit(mask, i + 1))
+			sum += this.weight[i];
+		return sum;
+	}
+
+	/**
+	 * Method checking whether the cities of the topology can be stored as a single
+	 * 64-bit mask, as the incremental heuristics require.
+	 */
+	public boolean hasCityMasks() {
+		return cities.size() <= 64;
+	}
+
+	/**
+	 * Method checking whether a task of the first mask is picked up or delivered
+	 * in the city, or a task of the second mask is delivered there.
+	 */
+	public boolean hasTaskEventIn(int city, long[] tasksToPickup, long[] tasksToDeliver) {
+		long[] pickups = this.pickupsIn[city], deliveries = this.deliveriesIn[city];
+		for (int w = 0; w < this.numWords; w++)
+			if ((tasksToPickup[w] & (pickups[w] | deliveries[w])) != 0 || (tasksToDeliver[w] & deliveries[w]) != 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Method returning the distance (in km) from a city to the closest city of the
+	 * mask, or +Infinity if the mask is empty.
+	 */
+	public double nearestDistance(int from, long cityMask) {
+		if (cityMask == 0)
+			return Double.POSITIVE_INFINITY;
+		for (int city : this.citiesByDistance[from])
+			if ((cityMask & (1L << city)) != 0)
+				return this.distances[from * this.cities.size() + city];
+		throw new AssertionError("Should not happen.");
+	}
+
+	public double getDistance(int from, int to) {
+		return distances[from * cities.size() + to];
+	}
+
+	public double getMinNeighborDistance(int city) {
+		return minNeighborDistance[city];
+	}
+
+	public City getCity(int id) {
+		return cities.get(id);
+	}
+
+	public Task getTask(int i) {
+		return tasks[i];
+	}
+
+	public int getNumTasks() {
+		return tasks.length;
+	}
+
+	public int getNumWords() {
+		return numWords;
+	}
+
+	public int getNumInitialPickups() {
+		return numInitialPickups;
+	}
+
+	public int getPickupCity(int i) {
+		return pickupCity[i];
+	}
+
+	public int getDeliveryCity(int i) {
+		return deliveryCity[i];
+	}
+
+	public int getWeight(int i) {
+		return weight[i];
+	}
+
+	public long getReward(int i) {
+		return reward[i];
+	}
+
+	public long[] getPickupsIn(int city) {
+		return pickupsIn[city];
+	}
+
+	public SpanningTreeCache getSpanningTrees() {
+		return spanningTrees;
+	}
+
+	public PatternDatabase getPatternDatabase() {
+		return patternDatabase;
+	}
+
+	public long[] getDeliveriesIn(int city) {
+		return deliveriesIn[city];
+	}
+
+}
@@ -0,0 +1,131 @@
+package template;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Class that keeps the policy of the reactive agent up to date with the task
+ * distribution observed during the simulation. The MDP is re-solved on a
+ * background thread, warm-started from the current V-values, only when the
+ * estimated distribution has drifted enough from the one the current policy was
+ * trained on.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+
+public class AdaptivePolicyUpdater {
+
+	private static final double PRIOR_WEIGHT = 10; // pseudo-observations given to the configured distribution
+	private static final int MIN_CHECK_INTERVAL = 10; // minimum number of observations between two drift checks
+	private static final int MAX_CHECK_INTERVAL = 1000; // maximum number of observations between two drift checks
+
+	private Topology topology;
+	private int costPerKm; // cost to pay for each km the agent covers
+	private double discountFactor;
+	private double epsilon; // precision value of the convergence test
+	private double divergenceThreshold; // drift above which the MDP is re-solved
+
+	private ObservedTaskDistribution observedDistribution; // estimate updated at every observation
+	private ObservedTaskDistribution trainedDistribution; // estimate the current policy was trained on
+	private int checkInterval; // current number of observations between two drift checks
+	private int numObservationsSinceCheck;
+
+	private volatile HashMap<State, Integer> policy; // swapped in by the solver thread once training ends
+	private volatile HashMap<State, Double> values; // V-values of the current policy, used for warm-starting
+	private ExecutorService solver;
+	private Future<?> pendingTraining;
+	private volatile int numTrainings;
+
+	public AdaptivePolicyUpdater(Topology topology, TaskDistribution td, int costPerKm, double discountFactor,
+			double epsilon, double divergenceThreshold) {
+		super();
+		this.topology = topology;
+		this.costPerKm = costPerKm;
+		this.discountFactor = discountFactor;
+		this.epsilon = epsilon;
+		this.divergenceThreshold = divergenceThreshold;
+		this.observedDistribution = new ObservedTaskDistribution(topology, td, PRIOR_WEIGHT);
+		this.checkInterval = MIN_CHECK_INTERVAL;
+		this.numObservationsSinceCheck = 0;
+		this.numTrainings = 0;
+
+		// The solver thread must not keep the simulation alive when it ends
+		this.solver = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "reactive-policy-updater");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// The first policy is trained synchronously on the configured distribution
+		this.trainedDistribution = this.observedDistribution.snapshot();
+		train(this.trainedDistribution, null);
+	}
+
+	/**
+	 * Method that records the task seen in a city and, every checkInterval
+	 * observations, checks whether the estimated distribution has drifted enough
+	 * to schedule a new training. The interval is halved after each drift found
+	 * and doubled after each check that finds none, so that little time is spent
+	 * on checks once the estimate is stable.
+	 *
+	 * @param location      city in which the observation was made
+	 * @param availableTask task available in the city, null if there is none
+	 */
+	public void observe(City location, Task availableTask) {
+		this.observedDistribution.observe(location, availableTask);
+
+		if (++this.numObservationsSinceCheck < this.checkInterval)
+			return;
+		this.numObservationsSinceCheck = 0;
+
+		// Only one training at a time, the check will be repeated at the next interval
+		if (this.pendingTraining != null && !this.pendingTraining.isDone())
+			return;
+
+		double divergence = this.observedDistribution.divergenceFrom(this.trainedDistribution);
+		if (divergence > this.divergenceThreshold) {
+			this.checkInterval = Math.max(MIN_CHECK_INTERVAL, this.checkInterval / 2);
+
+			ObservedTaskDistribution snapshot = this.observedDistribution.snapshot();
+			HashMap<State, Double> initialValues = this.values;
+			this.trainedDistribution = snapshot;
+			this.pendingTraining = this.solver.submit(() -> train(snapshot, initialValues));
+		} else
+			this.checkInterval = Math.min(MAX_CHECK_INTERVAL, this.checkInterval * 2);
+	}
+
+	/**
+	 * Method that solves the MDP for the given distribution and swaps in the
+	 * resulting policy
+	 *
+	 * @param td            distribution to train on, must not change during the
+	 *                      training
+	 * @param initialValues V-values to start the value iteration from, null for a
+	 *                      cold start
+	 */
+	private void train(TaskDistribution td, HashMap<State, Double> initialValues) {
+		DecomposedTraining training = new DecomposedTraining(this.topology, td, this.costPerKm);
+		HashMap<State, Integer> newPolicy = training.trainMdpInfiniteHorizon(this.discountFactor, this.epsilon,
+				initialValues);
+		this.values = training.getValues();
+		this.policy = newPolicy;
+		this.numTrainings++;
+	}
+
+	public HashMap<State, Integer> getPolicy() {
+		return policy;
+	}
+
+	public int getNumTrainings() {
+		return numTrainings;
+	}
+
+}
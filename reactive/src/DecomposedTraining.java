@@ -0,0 +1,129 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Class that splits the model of a possibly disconnected topology into one
+ * independent MDP per connected component and solves them in parallel. States
+ * pairing cities of different components can never be reached, so they are not
+ * generated at all. The policies and V-values of all the components are merged
+ * into single tables, so lookups work exactly as with one monolithic model.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+
+public class DecomposedTraining {
+
+	private List<ReactiveTraining> componentTrainings; // one model for each connected component
+	private HashMap<State, Double> values; // V-values reached by the last training, over all components
+
+	public DecomposedTraining(Topology topology, TaskDistribution taskDistribution, int costPerKm) {
+		super();
+		this.componentTrainings = new ArrayList<>();
+		for (List<City> component : findConnectedComponents(topology))
+			this.componentTrainings.add(new ReactiveTraining(topology, taskDistribution, costPerKm, component));
+	}
+
+	/**
+	 * Method that groups the cities of the topology by connected component, using
+	 * a breadth-first visit of the routes starting from each unvisited city
+	 *
+	 * @param topology topology to split
+	 * @return the list of the components, each one as the list of its cities
+	 */
+	public static List<List<City>> findConnectedComponents(Topology topology) {
+		List<List<City>> components = new ArrayList<>();
+		boolean[] visited = new boolean[topology.size()];
+
+		for (City start : topology.cities()) {
+			if (visited[start.id])
+				continue;
+
+			List<City> component = new ArrayList<>();
+			LinkedList<City> queue = new LinkedList<>();
+			visited[start.id] = true;
+			queue.add(start);
+			while (!queue.isEmpty()) {
+				City city = queue.poll();
+				component.add(city);
+				for (City neighbor : city.neighbors()) {
+					if (!visited[neighbor.id]) {
+						visited[neighbor.id] = true;
+						queue.add(neighbor);
+					}
+				}
+			}
+			components.add(component);
+		}
+		return components;
+	}
+
+	/**
+	 * Method that trains every component model in parallel and merges the
+	 * resulting policies
+	 *
+	 * @param discountFactor factor to discount future rewards
+	 * @param epsilon        precision value of the convergence test
+	 * @param initialValues  V-values to start from, null for a cold start
+	 * @return the optimal found policy over all the components
+	 */
+	public HashMap<State, Integer> trainMdpInfiniteHorizon(double discountFactor, double epsilon,
+			HashMap<State, Double> initialValues) {
+		HashMap<State, Integer> policy = new HashMap<State, Integer>();
+		this.values = new HashMap<State, Double>();
+
+		// Nothing to parallelize on a connected topology
+		if (this.componentTrainings.size() == 1) {
+			ReactiveTraining training = this.componentTrainings.get(0);
+			policy.putAll(training.trainMdpInfiniteHorizon(discountFactor, epsilon, initialValues));
+			this.values.putAll(training.getValues());
+			return policy;
+		}
+
+		int numThreads = Math.min(this.componentTrainings.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Callable<HashMap<State, Integer>>> jobs = new ArrayList<>();
+			for (ReactiveTraining training : this.componentTrainings)
+				jobs.add(() -> training.trainMdpInfiniteHorizon(discountFactor, epsilon, initialValues));
+
+			List<Future<HashMap<State, Integer>>> results = executor.invokeAll(jobs);
+			for (int i = 0; i < results.size(); i++) {
+				policy.putAll(results.get(i).get());
+				this.values.putAll(this.componentTrainings.get(i).getValues());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training the components.", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Training of a component failed.", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+
+		System.out.println("Trained " + this.componentTrainings.size() + " independent components");
+		return policy;
+	}
+
+	public HashMap<State, Double> getValues() {
+		return values;
+	}
+
+	public List<ReactiveTraining> getComponentTrainings() {
+		return componentTrainings;
+	}
+
+}
@@ -0,0 +1,147 @@
+package template;
+
+import java.util.List;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Task distribution estimated online from the tasks the agent actually
+ * observes. The configured distribution is used as a prior, worth a fixed
+ * number of pseudo-observations in every city, so the estimate starts equal to
+ * it and moves towards the empirical frequencies as observations accumulate.
+ *
+ * @author Andrej Janchevski
+ * @author Orazio Rillo
+ */
+
+public class ObservedTaskDistribution implements TaskDistribution {
+
+	private TaskDistribution prior; // distribution given by the platform
+	private List<City> cities;
+	private double priorWeight; // number of pseudo-observations given to the prior in every city
+
+	private long[][] taskCounts; // entry [i][j] counts tasks from city i to city j, the last column counts "no task"
+	private long[] visitCounts; // number of observations made in each city
+	private double[][] rewardSums; // sum of the observed rewards for each (from, to) pair
+
+	public ObservedTaskDistribution(Topology topology, TaskDistribution prior, double priorWeight) {
+		super();
+		int numCities = topology.size();
+		this.prior = prior;
+		this.cities = topology.cities();
+		this.priorWeight = priorWeight;
+		this.taskCounts = new long[numCities][numCities + 1];
+		this.visitCounts = new long[numCities];
+		this.rewardSums = new double[numCities][numCities];
+	}
+
+	/**
+	 * Copy constructor, the counters are deep copied so that the new object is not
+	 * affected by further observations
+	 */
+	private ObservedTaskDistribution(ObservedTaskDistribution other) {
+		super();
+		int numCities = other.cities.size();
+		this.prior = other.prior;
+		this.cities = other.cities;
+		this.priorWeight = other.priorWeight;
+		this.taskCounts = new long[numCities][];
+		this.rewardSums = new double[numCities][];
+		for (int i = 0; i < numCities; i++) {
+			this.taskCounts[i] = other.taskCounts[i].clone();
+			this.rewardSums[i] = other.rewardSums[i].clone();
+		}
+		this.visitCounts = other.visitCounts.clone();
+	}
+
+	/**
+	 * Method that records the task (or the absence of one) seen in a city
+	 *
+	 * @param location      city in which the observation was made
+	 * @param availableTask task available in the city, null if there is none
+	 */
+	public void observe(City location, Task availableTask) {
+		int from = location.id;
+		this.visitCounts[from]++;
+		if (availableTask == null)
+			this.taskCounts[from][this.cities.size()]++;
+		else {
+			int to = availableTask.deliveryCity.id;
+			this.taskCounts[from][to]++;
+			this.rewardSums[from][to] += availableTask.reward;
+		}
+	}
+
+	/**
+	 * Method that returns a frozen copy of the current estimate, safe to be used
+	 * by another thread while observations keep being recorded
+	 */
+	public ObservedTaskDistribution snapshot() {
+		return new ObservedTaskDistribution(this);
+	}
+
+	/**
+	 * Method that measures how much this estimate has drifted from an older one,
+	 * as the Kullback-Leibler divergence of the task distributions in each city,
+	 * weighted by how often each city has been visited
+	 *
+	 * @param other older estimate of the distribution
+	 * @return the weighted divergence, positive infinity if this estimate gives
+	 *         probability to an event the other one considers impossible
+	 */
+	public double divergenceFrom(ObservedTaskDistribution other) {
+		long totalVisits = 0;
+		for (long visits : this.visitCounts)
+			totalVisits += visits;
+		if (totalVisits == 0)
+			return 0;
+
+		double divergence = 0;
+		for (City from : this.cities) {
+			if (this.visitCounts[from.id] == 0)
+				continue;
+
+			double cityDivergence = 0;
+			for (int j = 0; j <= this.cities.size(); j++) {
+				City to = j < this.cities.size() ? this.cities.get(j) : null;
+				double p = this.probability(from, to), q = other.probability(from, to);
+				if (p == 0)
+					continue;
+				if (q == 0)
+					return Double.POSITIVE_INFINITY;
+				cityDivergence += p * Math.log(p / q);
+			}
+			divergence += cityDivergence * this.visitCounts[from.id] / totalVisits;
+		}
+		return divergence;
+	}
+
+	@Override
+	public double probability(City from, City to) {
+		int column = to == null ? this.cities.size() : to.id;
+		return (this.priorWeight * this.prior.probability(from, to) + this.taskCounts[from.id][column])
+				/ (this.priorWeight + this.visitCounts[from.id]);
+	}
+
+	@Override
+	public int reward(City from, City to) {
+		// Falls back to the prior until a task between the two cities has been seen
+		long count = this.taskCounts[from.id][to.id];
+		if (count == 0)
+			return this.prior.reward(from, to);
+		return (int) Math.round(this.rewardSums[from.id][to.id] / count);
+	}
+
+	@Override
+	public int weight(City from, City to) {
+		return this.prior.weight(from, to);
+	}
+
+	public long getNumObservations(City location) {
+		return this.visitCounts[location.id];
+	}
+
+}
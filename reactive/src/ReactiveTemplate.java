@@ -26,6 +26,7 @@ public class ReactiveTemplate implements ReactiveBehavior {
 	private int numActions; // total number of actions executed by the agent
 	private HashMap<State, Integer> policy; // table that assigns to each state the optimal action in the current
 											// topology
+	private AdaptivePolicyUpdater policyUpdater; // re-trains the policy on the observed tasks, null if not adaptive
 
 	@Override
 	public void setup(Topology topology, TaskDistribution td, Agent agent) {
@@ -50,10 +51,24 @@ public class ReactiveTemplate implements ReactiveBehavior {
 
 		int costPerKm = agent.vehicles().get(0).costPerKm();
 
+		// Reads from the agents.xml file whether the policy should adapt to the tasks
+		// observed during the simulation, and how much the estimated task distribution
+		// has to drift before the MDP is solved again
+		Boolean adaptive = agent.readProperty("adaptive", Boolean.class, false);
+		Double divergenceThreshold = agent.readProperty("divergence-threshold", Double.class, 0.01);
+
+		if (adaptive) {
+			// The updater trains the initial policy itself and keeps it up to date
+			this.policyUpdater = new AdaptivePolicyUpdater(topology, td, costPerKm, discount, epsilon,
+					divergenceThreshold);
+			this.policy = this.policyUpdater.getPolicy();
+			return;
+		}
+
 		// Trains the agent (i.e. populate the policy table with the optimal action
 		// choices for each state)
-		ReactiveTraining training = new ReactiveTraining(topology, td, costPerKm);
-		policy = training.trainMdpInfiniteHorizon(discount, epsilon);
+		DecomposedTraining training = new DecomposedTraining(topology, td, costPerKm);
+		policy = training.trainMdpInfiniteHorizon(discount, epsilon, null);
 	}
 
 	@Override
@@ -62,6 +77,13 @@ public class ReactiveTemplate implements ReactiveBehavior {
 		City currentCity = vehicle.getCurrentCity();
 		State currentState;
 
+		// Records the observation and picks up the latest policy in the adaptive mode,
+		// a new one might have been swapped in by the background training
+		if (this.policyUpdater != null) {
+			this.policyUpdater.observe(currentCity, availableTask);
+			this.policy = this.policyUpdater.getPolicy();
+		}
+
 		// Initializes a variable currentState based on the information we can get by
 		// the model; it represents the current state in our representation
 		if (availableTask != null)
@@ -69,6 +91,11 @@ public class ReactiveTemplate implements ReactiveBehavior {
 		else
 			currentState = new State(currentCity, null);
 
+		// A task towards another connected component cannot be delivered and has no
+		// state in the model, so it is ignored
+		if (!this.policy.containsKey(currentState))
+			currentState = new State(currentCity, null);
+
 		// Selects the optimal action for the current state using the policy
 		int intAction = this.policy.get(currentState);
 
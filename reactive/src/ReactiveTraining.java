@@ -24,18 +24,34 @@ public class ReactiveTraining {
 	private TaskDistribution taskDistribution;
 	private int costPerKm; // cost to pay for each km the agent covers
 
-	private List<City> cities;
+	private List<City> cities; // all the cities of the topology, indexed by the move actions
+	private List<City> componentCities; // cities of the connected component the model is built for
+	private int pickupAction; // value of the pickup action, placed after all the move actions
 	private ArrayList<State> states;
 	private int[] actions;
 	private HashMap<RewardTableKey, Double> rewardsMap;
 	private HashMap<TransitionProbabilityTableKey, Double> transitionProbabilityMap;
+	private HashMap<State, Double> values; // V-values reached by the last training
 
 	public ReactiveTraining(Topology topology, TaskDistribution taskDistribution, int costPerKm) {
+		this(topology, taskDistribution, costPerKm, topology.cities());
+	}
+
+	/**
+	 * Constructor that builds the model restricted to the cities of one connected
+	 * component of the topology. Since the vehicle can never leave its component
+	 * and no task can be delivered outside of it, the restricted model has the
+	 * same optimal policy as the full one on the states it contains.
+	 */
+	public ReactiveTraining(Topology topology, TaskDistribution taskDistribution, int costPerKm,
+			List<City> componentCities) {
 		super();
 		this.topology = topology;
 		this.taskDistribution = taskDistribution;
 		this.costPerKm = costPerKm;
 		this.cities = this.topology.cities();
+		this.componentCities = componentCities;
+		this.pickupAction = this.cities.size();
 
 		generateStateSpace();
 		generateActionSpace();
@@ -45,28 +61,33 @@ public class ReactiveTraining {
 
 	/**
 	 * Method that creates a new State for each possible combination of current city
-	 * and destination city and then adds them to the list of states
+	 * and destination city and then adds them to the list of states. Combinations
+	 * for which no task can ever appear are unreachable, so they are left out
 	 */
 	public void generateStateSpace() {
 		this.states = new ArrayList<State>();
 
-		for (City location : this.cities) {
-			for (City taskDestination : this.cities) {
-				this.states.add(new State(location, taskDestination));
+		for (City location : this.componentCities) {
+			for (City taskDestination : this.componentCities) {
+				if (this.taskDistribution.probability(location, taskDestination) > 0)
+					this.states.add(new State(location, taskDestination));
 			}
 			this.states.add(new State(location, null));
 		}
 	}
 
 	/**
-	 * Method that add all the possible actions to the array of actions
+	 * Method that add all the possible actions to the array of actions, i.e. a move
+	 * to each city of the component, identified by the city index in the topology,
+	 * and the pickup action
 	 */
 	public void generateActionSpace() {
-		int numCities = this.cities.size();
+		int numCities = this.componentCities.size();
 		this.actions = new int[numCities + 1];
 
-		for (int i = 0; i < numCities + 1; i++)
-			this.actions[i] = i;
+		for (int i = 0; i < numCities; i++)
+			this.actions[i] = this.componentCities.get(i).id;
+		this.actions[numCities] = this.pickupAction;
 	}
 
 	/**
@@ -74,7 +95,6 @@ public class ReactiveTraining {
 	 * for each legal state-action pair
 	 */
 	public void generateRewardTable() {
-		int numActions = this.actions.length;
 		this.rewardsMap = new HashMap<RewardTableKey, Double>();
 
 		for (State s : this.states) {
@@ -84,7 +104,7 @@ public class ReactiveTraining {
 				City sLocation = s.getLocation(), sTaskDestination = s.getTaskDestination();
 
 				// Checks whether the action is a pickup action...
-				if (action == numActions - 1) {
+				if (action == this.pickupAction) {
 					// in this case the profit is the difference between the reward obtained by
 					// delivering the task and the covered distance multiplied by the specific cost
 					// per km
@@ -110,7 +130,6 @@ public class ReactiveTraining {
 	 * choosing action a
 	 */
 	public void generateTransitionTable() {
-		int numActions = this.actions.length;
 		this.transitionProbabilityMap = new HashMap<TransitionProbabilityTableKey, Double>();
 
 		for (State s : this.states) {
@@ -124,7 +143,7 @@ public class ReactiveTraining {
 					// We cover both cases for the value of c_D' using the same syntax of calling taskDistribution.probability
 
 					// Checks whether the action is a pickup action...
-					if (action == numActions - 1) {
+					if (action == this.pickupAction) {
 						// Checks that there is a task to pickup
 						if (sTaskDestination != null) {
 							// Checks that the current destination and s' location are the same city and that there is a path to the delivery city
@@ -160,6 +179,21 @@ public class ReactiveTraining {
 	 * @return the optimal found policy
 	 */
 	public HashMap<State, Integer> trainMdpInfiniteHorizon(double discountFactor, double epsilon) {
+		return trainMdpInfiniteHorizon(discountFactor, epsilon, null);
+	}
+
+	/**
+	 * Method that trains the agent in order to find the optimal policy, starting
+	 * the value iteration from previously computed V-values
+	 * 
+	 * @param discountFactor factor to discount future rewards
+	 * @param epsilon        precision value of the convergence test
+	 * @param initialValues  V-values to start from, states missing from the map
+	 *                       (or a null map) start from the default value
+	 * @return the optimal found policy
+	 */
+	public HashMap<State, Integer> trainMdpInfiniteHorizon(double discountFactor, double epsilon,
+			HashMap<State, Double> initialValues) {
 		int numStates = this.states.size(), numActions = this.actions.length;
 		ArrayList<ArrayList<Double>> qTable = new ArrayList<>(); // matrix of Q-values
 		ArrayList<Double> vVector = new ArrayList<>(); // vector of V-values
@@ -168,8 +202,11 @@ public class ReactiveTraining {
 
 		// Initializes V-values and Q-values
 		for (int i = 0; i < numStates; i++) {
-			vVector.add(1.0);
-			vVectorPrevious.add(1.0);
+			double initialValue = 1.0;
+			if (initialValues != null && initialValues.containsKey(this.states.get(i)))
+				initialValue = initialValues.get(this.states.get(i));
+			vVector.add(initialValue);
+			vVectorPrevious.add(initialValue);
 			qTable.add(new ArrayList<>());
 			for (int j = 0; j < numActions; j++)
 				qTable.get(i).add(0.0);
@@ -236,14 +273,22 @@ public class ReactiveTraining {
 		for (int i = 0; i < numStates; i++) {
 			State s = this.states.get(i);
 			double bestQ = vVector.get(i);
-			int bestAction = qTable.get(i).indexOf(bestQ);
+			int bestAction = this.actions[qTable.get(i).indexOf(bestQ)];
 			policy.put(s, bestAction);
 		}
 
+		this.values = new HashMap<State, Double>();
+		for (int i = 0; i < numStates; i++)
+			this.values.put(this.states.get(i), vVector.get(i));
+
 		System.out.println("Converged in " + numIterations + " iterations");
 		return policy;
 	}
 
+	public HashMap<State, Double> getValues() {
+		return values;
+	}
+
 	public ArrayList<State> getStates() {
 		return states;
 	}